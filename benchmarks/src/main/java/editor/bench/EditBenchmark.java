@@ -0,0 +1,68 @@
+package editor.bench;
+
+import editor.TextStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Typing and deleting at the cursor in the middle of a document, in each engine. Every
+// benchmark puts back what it took out, so the document stays the same size. The linked
+// baseline is left out by default, since it needs an object per character; -p engine=linked
+// adds it.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EditBenchmark {
+    @Param({"piece", "rope", "gap"})
+    public String engine;
+
+    @Param({"1024", "1048576", "104857600"})
+    public int size;
+
+    private TextStore text;
+    private char[] paste;
+
+    @Setup
+    public void setUp() {
+        text = Texts.fill(engine, Texts.make(size));
+        text.setCursor(size / 2);
+        paste = Texts.make(1024);
+    }
+
+    // one keystroke and one backspace
+    @Benchmark
+    public int addRemove() {
+        text.add('x');
+        text.remove();
+        return text.size();
+    }
+
+    // a line of typing, then deleting it a character at a time
+    @Benchmark
+    public int typeLine() {
+        for (int i = 0; i < 64; i += 1) {
+            text.add((char) ('a' + i % 26));
+        }
+        for (int i = 0; i < 64; i += 1) {
+            text.remove();
+        }
+        return text.size();
+    }
+
+    // pasting a kilobyte and undoing it, each in one step
+    @Benchmark
+    public int pasteUndo() {
+        text.add(paste, 0, paste.length);
+        text.remove(paste.length);
+        return text.size();
+    }
+}
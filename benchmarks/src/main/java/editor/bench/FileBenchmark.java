@@ -0,0 +1,83 @@
+package editor.bench;
+
+import editor.Document;
+import editor.FixedMetrics;
+import editor.Layout;
+import editor.TextStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+// Opening a file the way the KeyEventHandler constructor does, reading it into a document
+// whose layout wraps it, and saving it the way Ctrl+S does, to a file in the same directory.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FileBenchmark {
+    @Param({"1024", "1048576", "104857600"})
+    public int size;
+
+    private File directory;
+    private File source;
+    private File target;
+    private Document document;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = File.createTempFile("editor", "bench");
+        directory.delete();
+        directory.mkdir();
+        source = new File(directory, "source.txt");
+        target = new File(directory, "target.txt");
+        Writer writer = new FileWriter(source);
+        try {
+            writer.write(Texts.make(size));
+        } finally {
+            writer.close();
+        }
+        document = open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+        target.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public int load() throws IOException {
+        return open().size();
+    }
+
+    @Benchmark
+    public long save() throws IOException {
+        document.save(target);
+        return target.length();
+    }
+
+    private Document open() throws IOException {
+        Document opened = new Document(TextStores.create("piece"));
+        Layout layout = new Layout(opened.getText(), new FixedMetrics(7, 15), 5);
+        layout.setRightMargin(480);
+        opened.addListener(layout);
+        opened.load(source);
+        opened.setCursor(0);
+        return opened;
+    }
+}
@@ -0,0 +1,96 @@
+package editor.bench;
+
+import editor.Document;
+import editor.FixedMetrics;
+import editor.Layout;
+import editor.TextStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Wrapping: all of the text, as after a font change, the paragraphs a new width affects, as
+// after a resize, and just what an edit touched, as after typing. A font change or resize
+// wraps only what is on screen, so those also measure wrapping everything, as scrolling
+// through the whole file would. Glyphs are measured with FixedMetrics so no JavaFX is needed.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LayoutBenchmark {
+    // a screenful of lines at 15 pixels each
+    private static final int SCREEN = 60;
+
+    @Param({"1024", "1048576", "104857600"})
+    public int size;
+
+    private Document document;
+    private Layout layout;
+    private int width;
+
+    @Setup
+    public void setUp() {
+        document = new Document(TextStores.create("piece"));
+        layout = new Layout(document.getText(), new FixedMetrics(7, 15), 5);
+        layout.setRightMargin(480);
+        document.addListener(layout);
+        document.insert(new String(Texts.make(size)));
+        document.setCursor(size / 2);
+    }
+
+    // opening the document: a new layout guesses the height of every paragraph from its
+    // length and wraps only a screenful
+    @Benchmark
+    public int open() {
+        Layout opened = new Layout(document.getText(), layout.getMetrics(), 5);
+        opened.setRightMargin(480);
+        opened.reflow();
+        opened.prepare(0, SCREEN);
+        return opened.lineCount();
+    }
+
+    // a font change at the top of the document, at alternating widths
+    @Benchmark
+    public int reflow() {
+        width = width == 480 ? 400 : 480;
+        layout.setRightMargin(width);
+        layout.reflow();
+        layout.prepare(0, SCREEN);
+        return layout.lineCount();
+    }
+
+    // a font change followed by scrolling through all of the document; paragraphs wrapped at
+    // the width before last come from the cache while it holds them
+    @Benchmark
+    public int reflowAll() {
+        width = width == 480 ? 400 : 480;
+        layout.setRightMargin(width);
+        layout.reflow();
+        layout.prepare(0, Integer.MAX_VALUE);
+        return layout.lineCount();
+    }
+
+    // a window resize, which only touches the paragraphs that do not fit on one line
+    @Benchmark
+    public int resize() {
+        width = width == 480 ? 400 : 480;
+        layout.resize(width);
+        layout.prepare(0, SCREEN);
+        return layout.lineCount();
+    }
+
+    // a keystroke and a backspace in the middle, each re-wrapping its paragraph
+    @Benchmark
+    public int incremental() {
+        document.insert('x');
+        document.delete();
+        return layout.lineCount();
+    }
+}
@@ -0,0 +1,71 @@
+package editor.bench;
+
+import editor.Document;
+import editor.FixedMetrics;
+import editor.Layout;
+import editor.TextStores;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+
+// Moving the cursor the way the key and mouse handlers do, through the layout and the text's
+// line index.
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class NavigationBenchmark {
+    @Param({"1024", "1048576", "104857600"})
+    public int size;
+
+    private Document document;
+    private Layout layout;
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        document = new Document(TextStores.create("piece"));
+        layout = new Layout(document.getText(), new FixedMetrics(7, 15), 5);
+        layout.setRightMargin(480);
+        document.addListener(layout);
+        document.insert(new String(Texts.make(size)));
+        document.setCursor(size / 2);
+        random = new Random(1);
+    }
+
+    // DOWN then UP, keeping the column
+    @Benchmark
+    public int upDown() {
+        int x = layout.x(document.getCursor());
+        int line = layout.lineOf(document.getCursor());
+        document.setCursor(layout.offsetAt(Math.min(line + 1, layout.lineCount() - 1), x));
+        document.setCursor(layout.offsetAt(line, x));
+        return document.getCursor();
+    }
+
+    // a click anywhere in the document
+    @Benchmark
+    public int click() {
+        int y = random.nextInt(layout.height());
+        document.setCursor(layout.offsetAt(layout.lineAt(y), random.nextInt(480)));
+        return document.getCursor();
+    }
+
+    // Ctrl+G to any line
+    @Benchmark
+    public int goToLine() {
+        int line = random.nextInt(document.getText().lineCount());
+        document.setCursor(document.getText().lineStart(line));
+        return layout.y(layout.lineOf(document.getCursor()));
+    }
+}
@@ -0,0 +1,36 @@
+package editor.bench;
+
+import editor.TextStore;
+import editor.TextStores;
+
+import java.util.Random;
+
+// Synthetic documents: words of 1 to 10 letters, with a newline every few dozen words, so
+// paragraphs wrap over several lines the way prose does. The same size gives the same text.
+public class Texts {
+    // a text of size characters
+    public static char[] make(int size) {
+        Random random = new Random(size);
+        char[] text = new char[size];
+        int i = 0;
+        while (i < size) {
+            int word = 1 + random.nextInt(10);
+            for (int k = 0; k < word && i < size; k += 1) {
+                text[i] = (char) ('a' + random.nextInt(26));
+                i += 1;
+            }
+            if (i < size) {
+                text[i] = random.nextInt(40) == 0 ? '\n' : ' ';
+                i += 1;
+            }
+        }
+        return text;
+    }
+
+    // a store of the given engine holding text, with the cursor at the end
+    public static TextStore fill(String engine, char[] text) {
+        TextStore store = TextStores.create(engine);
+        store.add(text, 0, text.length);
+        return store;
+    }
+}
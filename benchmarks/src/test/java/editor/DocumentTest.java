@@ -0,0 +1,59 @@
+package editor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Saves files after typing a line into them, and checks every line still ends the way the
+// file ended its lines.
+public class DocumentTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void loadedFilesKeepTheirLineEndings() throws Exception {
+        for (String separator : new String[] {"\r\n", "\r", "\n"}) {
+            File file = folder.newFile();
+            Files.write(file.toPath(), ("one" + separator + "two" + separator).getBytes("UTF-8"));
+            Document document = new Document(TextStores.create("piece"));
+            document.load(file);
+            assertEquals("one\ntwo\n", UndoTest.text(document));
+            document.setCursor(4);
+            document.insert("new\n");
+            document.insert('x');
+            document.insert('\r');
+            document.save(file);
+            assertEquals("one" + separator + "new" + separator + "x" + separator + "two"
+                    + separator, new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+        }
+    }
+
+    @Test
+    public void mappedFilesKeepTheirLineEndings() throws Exception {
+        File file = folder.newFile();
+        Files.write(file.toPath(), "one\r\ntwo\r\n".getBytes("ISO-8859-1"));
+        Document document = new Document(TextStores.create("piece"));
+        final LinkedBlockingQueue<Runnable> ui = new LinkedBlockingQueue<Runnable>();
+        document.map(file, new Executor() {
+            public void execute(Runnable task) {
+                ui.add(task);
+            }
+        });
+        while (document.size() < file.length()) {
+            ui.take().run();
+        }
+        // a mapped file is shown the way it is stored
+        assertEquals("one\r\ntwo\r\n", UndoTest.text(document));
+        document.setCursor(5);
+        document.insert("new\n");
+        document.save(file);
+        assertEquals("one\r\nnew\r\ntwo\r\n",
+                new String(Files.readAllBytes(file.toPath()), "ISO-8859-1"));
+    }
+}
@@ -0,0 +1,207 @@
+package editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// Edits a file over several sessions that each end without saving, and checks each session
+// gets back the text the last one left and all of its history.
+public class JournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void journal() {
+        System.setProperty("editor.journal", "true");
+        // small enough that most of the history is only in the journal
+        System.setProperty("editor.undo.memory", "2048");
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("editor.journal");
+        System.clearProperty("editor.undo.memory");
+    }
+
+    @Test
+    public void sessionsRecoverTheirEdits() throws Exception {
+        Random random = new Random(5);
+        for (String engine : new String[] {"piece", "rope", "gap", "linked"}) {
+            for (int round = 0; round < 10; round += 1) {
+                File file = folder.newFile(engine + round + ".txt");
+                Files.write(file.toPath(), "hello\r\nworld\nabc".getBytes("US-ASCII"));
+                String text = null;
+                for (int session = 0; session < 4; session += 1) {
+                    Document document = new Document(TextStores.create(engine));
+                    document.load(file);
+                    document.journal(file);
+                    if (text != null) {
+                        assertEquals(engine, text, UndoTest.text(document));
+                    }
+                    document.setCursor(0);
+                    for (int i = 0; i < 300; i += 1) {
+                        if (random.nextInt(80) == 0) {
+                            // the file changes, so the journal has to start again from it
+                            Thread.sleep(5);
+                            document.save(file);
+                        } else {
+                            UndoTest.edit(document, random);
+                        }
+                    }
+                    text = UndoTest.text(document);
+                }
+                Document document = new Document(TextStores.create(engine));
+                document.load(file);
+                document.journal(file);
+                assertEquals(engine, text, UndoTest.text(document));
+                while (document.redo()) {
+                    continue;
+                }
+                String last = UndoTest.text(document);
+                while (document.undo()) {
+                    continue;
+                }
+                assertEquals(engine, "hello\nworld\nabc", UndoTest.text(document));
+                while (document.redo()) {
+                    continue;
+                }
+                assertEquals(engine, last, UndoTest.text(document));
+            }
+        }
+    }
+
+    @Test
+    public void mappedFileRecoversItsEdits() throws Exception {
+        File file = folder.newFile("mapped.txt");
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 30000; i += 1) {
+            lines.append("line ").append(i).append('\n');
+        }
+        Files.write(file.toPath(), lines.toString().getBytes("ISO-8859-1"));
+        String text = null;
+        for (int session = 0; session < 3; session += 1) {
+            Document document = map(file);
+            if (text != null) {
+                assertEquals(text, UndoTest.text(document));
+            }
+            document.setCursor(10);
+            document.insert('X');
+            document.insert('Y');
+            document.setCursor(1000);
+            document.delete();
+            document.insert("pasted\n");
+            text = UndoTest.text(document);
+        }
+        Document document = map(file);
+        assertEquals(text, UndoTest.text(document));
+        while (document.undo()) {
+            continue;
+        }
+        assertEquals(lines.toString(), UndoTest.text(document));
+    }
+
+    @Test
+    public void runsCutShortKeepTheirCharacters() throws Exception {
+        File file = folder.newFile("typed.txt");
+        Files.write(file.toPath(), "abc\n".getBytes("US-ASCII"));
+        Document document = open(file);
+        document.setCursor(3);
+        for (char c : "typing".toCharArray()) {
+            document.insert(c);
+        }
+        stopBeforeLastCharacter(file);
+        document = open(file);
+        assertEquals("abctypin\n", UndoTest.text(document));
+        document.setCursor(8);
+        for (int i = 0; i < 3; i += 1) {
+            document.delete();
+        }
+        stopBeforeLastCharacter(file);
+        document = open(file);
+        assertEquals("abctyp\n", UndoTest.text(document));
+        while (document.undo()) {
+            continue;
+        }
+        assertEquals("abc\n", UndoTest.text(document));
+    }
+
+    @Test
+    public void savingDropsWhatTheHistoryNoLongerReaches() throws Exception {
+        File file = folder.newFile("pasted.txt");
+        Files.write(file.toPath(), "abc\n".getBytes("US-ASCII"));
+        Document document = open(file);
+        document.setCursor(3);
+        document.insert("kept");
+        String pasted = new String(TextStoreTest.letters(new Random(6), 100000));
+        for (int i = 0; i < 8; i += 1) {
+            document.insert(pasted);
+        }
+        for (int i = 0; i < 8; i += 1) {
+            document.undo();
+        }
+        document.insert('x');
+        document.undo();
+        File journal = new File(folder.getRoot(), ".pasted.txt.journal");
+        long before = journal.length();
+        document.save(file);
+        assertTrue(journal.length() < before);
+        document = open(file);
+        assertEquals("abckept\n", UndoTest.text(document));
+        assertTrue(document.redo());
+        assertEquals("abckeptx\n", UndoTest.text(document));
+        while (document.undo()) {
+            continue;
+        }
+        assertEquals("abc\n", UndoTest.text(document));
+    }
+
+    private static Document open(File file) throws IOException {
+        Document document = new Document(TextStores.create("piece"));
+        document.load(file);
+        document.journal(file);
+        return document;
+    }
+
+    // moves the end in the journal of file back over the last character, as if the editor
+    // stopped between counting it in its run and moving the end past it
+    private void stopBeforeLastCharacter(File file) throws IOException {
+        File journal = new File(folder.getRoot(), "." + file.getName() + ".journal");
+        RandomAccessFile header = new RandomAccessFile(journal, "rw");
+        try {
+            header.seek(8);
+            int end = header.readInt();
+            header.seek(8);
+            header.writeInt(end - 2);
+        } finally {
+            header.close();
+        }
+    }
+
+    // maps file, running what the mapping hands the editor's thread until all of it is added
+    private static Document map(File file) throws IOException, InterruptedException {
+        Document document = new Document(TextStores.create("piece"));
+        final LinkedBlockingQueue<Runnable> ui = new LinkedBlockingQueue<Runnable>();
+        document.map(file, new Executor() {
+            public void execute(Runnable task) {
+                ui.add(task);
+            }
+        });
+        document.journal(file);
+        while (document.size() < file.length()) {
+            ui.take().run();
+        }
+        return document;
+    }
+}
@@ -0,0 +1,269 @@
+package editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+// Edits, resizes and zooms a layout at random and checks it against a new layout of the same
+// text wrapped all at once.
+public class LayoutTest {
+    private static final String[] ENGINES = {"piece", "rope", "gap", "linked"};
+
+    // how much wider the glyphs are than at the smallest font
+    private int scale = 1;
+    private GlyphMetrics metrics = new GlyphMetrics() {
+        public int advance(char c) {
+            return (c == ' ' ? 3 : (c - 'a') % 7 + 2) * scale;
+        }
+
+        public int lineHeight() {
+            return 10;
+        }
+
+        public Object glyphs() {
+            return scale;
+        }
+    };
+
+    @Test
+    public void editsMatchWrappingAgain() {
+        Random random = new Random(5);
+        for (String engine : ENGINES) {
+            for (int round = 0; round < 10; round += 1) {
+                scale = 1;
+                Document document = new Document(TextStores.create(engine));
+                Layout layout = new Layout(document.getText(), metrics, 5);
+                int width = 60 + random.nextInt(300);
+                layout.setRightMargin(width);
+                document.addListener(layout);
+                document.insert(text(random, 5000, 40));
+                for (int k = 0; k < 100; k += 1) {
+                    int op = random.nextInt(12);
+                    if (op == 0) {
+                        width = 20 + random.nextInt(400);
+                        layout.resize(width);
+                    } else if (op == 1) {
+                        scale = 1 + random.nextInt(2);
+                        layout.reflow();
+                    } else if (op == 2) {
+                        int first = random.nextInt(layout.lineCount());
+                        layout.prepare(first, first + random.nextInt(30));
+                    } else if (op == 3) {
+                        checkLines(document, layout, random);
+                    } else if (op < 6) {
+                        // pastes of several paragraphs, and undoing them, replace paragraphs
+                        document.setCursor(random.nextInt(document.size() + 1));
+                        if (random.nextBoolean() || !document.undo()) {
+                            document.insert(text(random, 1 + random.nextInt(200), 6));
+                        }
+                    } else {
+                        for (int q = 0; q < 10; q += 1) {
+                            document.setCursor(random.nextInt(document.size() + 1));
+                            type(document, random);
+                        }
+                    }
+                    if (random.nextInt(10) == 0) {
+                        check(document, layout, width);
+                    }
+                }
+                check(document, layout, width);
+            }
+        }
+    }
+
+    @Test
+    public void workerWrapsEveryStaleParagraph() throws InterruptedException {
+        Random random = new Random(7);
+        for (String engine : ENGINES) {
+            scale = 1;
+            Document document = new Document(TextStores.create(engine));
+            Layout layout = new Layout(document.getText(), metrics, 5);
+            layout.setRightMargin(60 + random.nextInt(300));
+            document.addListener(layout);
+            final LinkedBlockingQueue<Runnable> ui = new LinkedBlockingQueue<Runnable>();
+            Runnable nothing = new Runnable() {
+                public void run() {
+                }
+            };
+            LayoutWorker worker = new LayoutWorker(document, layout, new Executor() {
+                public void execute(Runnable task) {
+                    ui.add(task);
+                }
+            }, nothing);
+            document.addListener(worker);
+            document.insert(text(random, 200000 + random.nextInt(300000), 40));
+            assertTrue(layout.hasStale());
+            int width = layout.getRightMargin();
+            for (int k = 0; k < 200; k += 1) {
+                Runnable task = ui.poll(random.nextInt(3) == 0 ? 2 : 0, TimeUnit.MILLISECONDS);
+                if (task != null) {
+                    task.run();
+                    continue;
+                }
+                int op = random.nextInt(8);
+                if (op == 0) {
+                    width = 20 + random.nextInt(400);
+                    worker.resize(width, nothing);
+                } else if (op == 1) {
+                    scale = 1 + random.nextInt(2);
+                    worker.reflow(width, nothing);
+                } else if (op == 2) {
+                    int first = random.nextInt(layout.lineCount());
+                    layout.prepare(first, first + 40);
+                } else if (op == 3) {
+                    checkLines(document, layout, random);
+                } else {
+                    document.setCursor(random.nextInt(document.size() + 1));
+                    type(document, random);
+                }
+            }
+            while (layout.hasStale()) {
+                Runnable task = ui.poll(5, TimeUnit.SECONDS);
+                assertTrue("the worker stopped with paragraphs stale", task != null);
+                task.run();
+            }
+            Layout wrapped = wrapAll(document, width);
+            assertEquals(wrapped.lineCount(), layout.lineCount());
+            for (int line = 0; line < wrapped.lineCount(); line += 1) {
+                assertEquals(wrapped.lineStart(line), layout.lineStart(line));
+            }
+        }
+    }
+
+    @Test
+    public void longParagraphsAreWrappedAsFarAsAsked() {
+        Random random = new Random(7);
+        for (int round = 0; round < 3; round += 1) {
+            scale = 1;
+            Document document = new Document(TextStores.create("piece"));
+            Layout layout = new Layout(document.getText(), metrics, 5);
+            int width = 60 + random.nextInt(300);
+            layout.setRightMargin(width);
+            document.addListener(layout);
+            StringBuilder paragraphs = new StringBuilder();
+            for (int p = 0; p < 3; p += 1) {
+                paragraphs.append(text(random, 70000 + random.nextInt(50000), 0)).append('\n');
+            }
+            document.insert(paragraphs.toString());
+            for (int k = 0; k < 60; k += 1) {
+                int op = random.nextInt(7);
+                if (op == 0) {
+                    width = 20 + random.nextInt(400);
+                    layout.resize(width);
+                } else if (op == 1) {
+                    scale = 1 + random.nextInt(2);
+                    layout.reflow();
+                } else if (op == 2) {
+                    int first = random.nextInt(layout.lineCount());
+                    layout.prepare(first, first + random.nextInt(30));
+                } else if (op == 3) {
+                    checkLines(document, layout, random);
+                } else if (op == 4) {
+                    int paragraph = layout.nextStale(0);
+                    if (paragraph != -1) {
+                        Layout wrapper = layout.wrapper(document.getText().snapshot());
+                        layout.wrapped(paragraph, wrapper.wrapParagraph(paragraph));
+                    }
+                } else {
+                    for (int q = 0; q < 5; q += 1) {
+                        document.setCursor(random.nextInt(document.size() + 1));
+                        type(document, random);
+                    }
+                }
+            }
+            check(document, layout, width);
+        }
+    }
+
+    @Test
+    public void endStaysOnItsLine() {
+        Document document = new Document(TextStores.create());
+        // eight characters to a line
+        Layout layout = new Layout(document.getText(), new FixedMetrics(7, 10), 5);
+        layout.setRightMargin(5 + 8 * 7 + 1);
+        document.addListener(layout);
+        document.insert("abcdefghijklmnopqrst");
+        assertEquals(8, layout.lineEnd(0));
+        assertEquals(7, layout.lastPosition(0));
+        assertEquals(0, layout.lineOf(layout.lastPosition(0)));
+        assertEquals(20, layout.lastPosition(layout.lineCount() - 1));
+
+        Random random = new Random(9);
+        document.setCursor(document.size());
+        document.insert(text(random, 3000, 40));
+        layout.setRightMargin(60 + random.nextInt(300));
+        layout.reflow();
+        for (int line = 0; line < layout.lineCount(); line += 1) {
+            // the last position shown on the line, past all of its characters but the last
+            int last = layout.lastPosition(line);
+            assertEquals(line, layout.lineOf(last));
+            assertEquals(line == layout.lineCount() - 1 ? document.size()
+                    : layout.lineStart(line + 1) - 1, last);
+        }
+    }
+
+    // length letters and spaces, with about one newline in paragraph characters, or none
+    private static String text(Random random, int length, int paragraph) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            if (random.nextInt(6) == 0) {
+                text.append(' ');
+            } else if (paragraph != 0 && random.nextInt(random.nextBoolean()
+                    ? paragraph / 5 + 1 : paragraph * 2) == 0) {
+                text.append('\n');
+            } else {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+        }
+        return text.toString();
+    }
+
+    // types a character, a space or a newline, or deletes one
+    private static void type(Document document, Random random) {
+        int c = random.nextInt(8);
+        if (c == 0) {
+            document.insert('\n');
+        } else if (c < 5) {
+            document.insert(c == 1 ? ' ' : 'w');
+        } else if (document.getCursor() > 0) {
+            document.delete();
+        }
+    }
+
+    // checks that offsets and lines map to each other
+    private static void checkLines(Document document, Layout layout, Random random) {
+        for (int q = 0; q < 5; q += 1) {
+            int offset = random.nextInt(document.size() + 1);
+            int line = layout.lineOf(offset);
+            assertTrue(offset >= layout.lineStart(line) && offset < layout.lineEnd(line));
+            layout.x(offset);
+            layout.offsetAt(Math.min(line + 1, layout.lineCount() - 1), random.nextInt(200));
+        }
+    }
+
+    private Layout wrapAll(Document document, int width) {
+        Layout layout = new Layout(document.getText(), metrics, 5);
+        layout.setRightMargin(width);
+        layout.reflow();
+        layout.prepare(0, Integer.MAX_VALUE);
+        return layout;
+    }
+
+    private void check(Document document, Layout layout, int width) {
+        Layout wrapped = wrapAll(document, width);
+        layout.prepare(0, Integer.MAX_VALUE);
+        assertEquals(wrapped.lineCount(), layout.lineCount());
+        for (int line = 0; line < wrapped.lineCount(); line += 1) {
+            assertEquals(wrapped.lineStart(line), layout.lineStart(line));
+            assertEquals(wrapped.lineEnd(line), layout.lineEnd(line));
+        }
+        for (int offset = 0; offset <= document.size(); offset += 7) {
+            assertEquals(wrapped.x(offset), layout.x(offset));
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+// Inserts and removes text at random and checks the index against counting the newlines.
+public class LineIndexTest {
+    @Test
+    public void indexMatchesNewlines() {
+        Random random = new Random(2);
+        StringBuilder expected = new StringBuilder();
+        LineIndex index = new LineIndex();
+        for (int i = 0; i < 5000; i += 1) {
+            if (random.nextInt(3) != 0 || expected.length() == 0) {
+                int offset = random.nextInt(expected.length() + 1);
+                char[] chars = TextStoreTest.letters(random,
+                        1 + random.nextInt(random.nextBoolean() ? 2 : 50));
+                expected.insert(offset, chars);
+                if (chars.length == 1) {
+                    index.inserted(offset, chars[0]);
+                } else {
+                    index.inserted(offset, chars, 0, chars.length);
+                }
+            } else {
+                int offset = random.nextInt(expected.length());
+                int count = Math.min(expected.length() - offset, 1 + random.nextInt(20));
+                char[] chars = new char[count];
+                expected.getChars(offset, offset + count, chars, 0);
+                expected.delete(offset, offset + count);
+                if (count == 1) {
+                    index.removed(offset, chars[0]);
+                } else {
+                    index.removed(offset, chars, 0, count);
+                }
+            }
+            String text = expected.toString();
+            assertEquals(TextStoreTest.lineCount(text), index.lineCount());
+            int offset = random.nextInt(text.length() + 1);
+            assertEquals(TextStoreTest.lineOf(text, offset), index.lineOf(offset));
+            int line = random.nextInt(index.lineCount());
+            assertEquals(TextStoreTest.lineStart(text, line), index.lineStart(line));
+        }
+    }
+
+    @Test
+    public void parallelScanMatchesNewlines() {
+        Random random = new Random(3);
+        char[] text = TextStoreTest.letters(random, 3 << 20);
+        LineIndex index = new LineIndex(text);
+        String string = new String(text);
+        assertEquals(TextStoreTest.lineCount(string), index.lineCount());
+        for (int k = 0; k < 20; k += 1) {
+            int line = random.nextInt(index.lineCount());
+            int start = index.lineStart(line);
+            assertEquals(line, index.lineOf(start));
+            assertTrue(start == 0 || text[start - 1] == '\n');
+        }
+    }
+}
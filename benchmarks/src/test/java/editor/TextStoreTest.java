@@ -0,0 +1,132 @@
+package editor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+// Edits each engine at random alongside a StringBuilder and checks they hold the same text and
+// lines, and that snapshots keep the text they were taken of.
+public class TextStoreTest {
+    @Test
+    public void pieceTableMatchesStringBuilder() {
+        matchesStringBuilder("piece");
+    }
+
+    @Test
+    public void linkedBufferMatchesStringBuilder() {
+        matchesStringBuilder("linked");
+    }
+
+    @Test
+    public void ropeMatchesStringBuilder() {
+        matchesStringBuilder("rope");
+    }
+
+    @Test
+    public void gapBufferMatchesStringBuilder() {
+        matchesStringBuilder("gap");
+    }
+
+    private static void matchesStringBuilder(String engine) {
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round += 1) {
+            StringBuilder expected = new StringBuilder();
+            TextStore text = TextStores.create(engine);
+            List<ReadableText> snapshots = new ArrayList<ReadableText>();
+            List<String> snapshotTexts = new ArrayList<String>();
+            int cursor = 0;
+            for (int i = 0; i < 1000; i += 1) {
+                int op = random.nextInt(10);
+                if (op < 2) {
+                    cursor = random.nextInt(expected.length() + 1);
+                    text.setCursor(cursor);
+                } else if (op < 6) {
+                    char c = random.nextInt(5) == 0 ? '\n' : (char) ('a' + random.nextInt(26));
+                    expected.insert(cursor, c);
+                    text.add(c);
+                    cursor += 1;
+                } else if (op < 7) {
+                    int length = random.nextBoolean() ? 8 : 1200;
+                    char[] chars = letters(random, 2 + random.nextInt(length));
+                    int count = chars.length - 2;
+                    expected.insert(cursor, chars, 1, count);
+                    text.add(chars, 1, count);
+                    cursor += count;
+                } else if (op < 8 && cursor > 0) {
+                    int most = Math.min(cursor, random.nextBoolean() ? 5 : 2000);
+                    int count = 1 + random.nextInt(most);
+                    expected.delete(cursor - count, cursor);
+                    text.remove(count);
+                    cursor -= count;
+                } else if (cursor > 0) {
+                    expected.deleteCharAt(cursor - 1);
+                    text.remove();
+                    cursor -= 1;
+                }
+                assertEquals(cursor, text.getCursor());
+                check(text, expected.toString(), random);
+                if (random.nextInt(40) == 0) {
+                    snapshots.add(text.snapshot());
+                    snapshotTexts.add(expected.toString());
+                }
+            }
+            for (int k = 0; k < snapshots.size(); k += 1) {
+                check(snapshots.get(k), snapshotTexts.get(k), random);
+            }
+        }
+    }
+
+    // count letters, with about one newline in six
+    static char[] letters(Random random, int count) {
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i += 1) {
+            chars[i] = random.nextInt(6) == 0 ? '\n' : (char) ('a' + random.nextInt(26));
+        }
+        return chars;
+    }
+
+    private static void check(ReadableText text, String expected, Random random) {
+        assertEquals(expected.length(), text.size());
+        char[] chars = new char[expected.length()];
+        text.getChars(0, chars.length, chars, 0);
+        assertEquals(expected, new String(chars));
+        for (int k = 0; k < 3 && expected.length() > 0; k += 1) {
+            int offset = random.nextInt(expected.length());
+            assertEquals(expected.charAt(offset), text.charAt(offset));
+        }
+        assertEquals(lineCount(expected), text.lineCount());
+        for (int k = 0; k < 3; k += 1) {
+            int offset = random.nextInt(expected.length() + 1);
+            assertEquals(lineOf(expected, offset), text.lineOf(offset));
+            int line = random.nextInt(text.lineCount());
+            assertEquals(lineStart(expected, line), text.lineStart(line));
+        }
+    }
+
+    static int lineCount(String text) {
+        return lineOf(text, text.length()) + 1;
+    }
+
+    static int lineOf(String text, int offset) {
+        int line = 0;
+        for (int i = 0; i < offset; i += 1) {
+            if (text.charAt(i) == '\n') {
+                line += 1;
+            }
+        }
+        return line;
+    }
+
+    static int lineStart(String text, int line) {
+        int offset = 0;
+        for (int seen = 0; seen < line; offset += 1) {
+            if (text.charAt(offset) == '\n') {
+                seen += 1;
+            }
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,175 @@
+package editor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+
+// Edits a document at random, with undo and redo among the edits, and checks undoing all of
+// it gets back to the start and redoing all of it back to the end.
+public class UndoTest {
+    private static final String[] ENGINES = {"piece", "rope", "gap", "linked"};
+
+    @After
+    public void clearProperties() {
+        System.clearProperty("editor.undo.memory");
+    }
+
+    @Test
+    public void undoAllAndRedoAll() {
+        for (String engine : ENGINES) {
+            Random random = new Random(11);
+            for (int round = 0; round < 30; round += 1) {
+                Document document = new Document(TextStores.create(engine));
+                for (int i = 0; i < 2000; i += 1) {
+                    edit(document, random);
+                }
+                while (document.redo()) {
+                    continue;
+                }
+                String last = text(document);
+                while (document.undo()) {
+                    continue;
+                }
+                assertEquals(engine, "", text(document));
+                while (document.redo()) {
+                    continue;
+                }
+                assertEquals(engine, last, text(document));
+            }
+        }
+    }
+
+    @Test
+    public void layoutFollowsUndoAndRedo() {
+        Random random = new Random(12);
+        for (String engine : ENGINES) {
+            for (int round = 0; round < 10; round += 1) {
+                Document document = new Document(TextStores.create(engine));
+                Layout layout = new Layout(document.getText(), new FixedMetrics(7, 15), 5);
+                layout.setRightMargin(100);
+                document.addListener(layout);
+                for (int i = 0; i < 2000; i += 1) {
+                    edit(document, random);
+                }
+                int[] starts = new int[layout.lineCount()];
+                for (int line = 0; line < starts.length; line += 1) {
+                    starts[line] = layout.lineStart(line);
+                }
+                layout.reflow();
+                layout.prepare(0, Integer.MAX_VALUE);
+                assertEquals(engine, starts.length, layout.lineCount());
+                for (int line = 0; line < starts.length; line += 1) {
+                    assertEquals(engine, starts[line], layout.lineStart(line));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void pasteIsUndoneInOneStep() {
+        Document document = new Document(TextStores.create());
+        final int[] changes = new int[1];
+        document.addListener(new DocumentListener() {
+            public void changed(int offset, int removed, int inserted) {
+                changes[0] += 1;
+            }
+        });
+        document.insert("one\r\ntwo\rthree");
+        assertEquals("one\ntwo\nthree", text(document));
+        changes[0] = 0;
+        assertTrue(document.undo());
+        assertEquals("", text(document));
+        assertFalse(document.undo());
+        assertTrue(document.redo());
+        assertEquals("one\ntwo\nthree", text(document));
+        // each step is one change, however long the paste
+        assertEquals(2, changes[0]);
+    }
+
+    @Test
+    public void typingIsUndoneALineAtATime() {
+        Document document = new Document(TextStores.create());
+        for (int line = 0; line < 10; line += 1) {
+            for (int i = 0; i < 100; i += 1) {
+                document.insert('a');
+            }
+            document.insert('\n');
+        }
+        for (int i = 0; i < 100; i += 1) {
+            document.delete();
+        }
+        int undos = 0;
+        while (document.undo()) {
+            undos += 1;
+        }
+        assertEquals(0, document.size());
+        // a run for each line typed, and one for the backspaces
+        assertEquals(11, undos);
+    }
+
+    @Test
+    public void historyKeepsToItsMemory() {
+        int budget = 4096;
+        System.setProperty("editor.undo.memory", Integer.toString(budget));
+        Document document = new Document(TextStores.create());
+        StringBuilder typed = new StringBuilder();
+        for (int i = 0; i < 7000; i += 1) {
+            char c = (char) ('a' + i % 26);
+            document.insert(c);
+            typed.append(c);
+            if (i % 7 == 6) {
+                // moving the cursor ends the run, so each seven characters are an entry
+                document.setCursor(document.getCursor());
+            }
+        }
+        int undos = 0;
+        while (document.undo()) {
+            undos += 1;
+        }
+        // only the newest runs that fit in the budget are kept
+        int runs = budget / new Actions(true, 0, new char[7], 0, 7).memory();
+        assertEquals(runs, undos);
+        // and the oldest typing can no longer be undone
+        assertEquals(typed.substring(0, typed.length() - 7 * runs), text(document));
+        while (document.redo()) {
+            continue;
+        }
+        assertEquals(typed.toString(), text(document));
+    }
+
+    // moves the cursor, types, deletes, pastes, undoes or redoes
+    static void edit(Document document, Random random) {
+        int op = random.nextInt(20);
+        if (op < 2) {
+            document.setCursor(random.nextInt(document.size() + 1));
+        } else if (op < 12) {
+            document.insert(random.nextInt(15) == 0 ? '\n' : (char) ('a' + random.nextInt(3)));
+        } else if (op < 15) {
+            if (document.getCursor() > 0) {
+                document.delete();
+            }
+        } else if (op < 16) {
+            StringBuilder pasted = new StringBuilder();
+            int count = random.nextInt(300);
+            for (int q = 0; q < count; q += 1) {
+                int c = random.nextInt(10);
+                pasted.append(c == 0 ? "\r\n" : c == 1 ? "\r" : "b");
+            }
+            document.insert(pasted.toString());
+        } else if (op < 18) {
+            document.undo();
+        } else {
+            document.redo();
+        }
+    }
+
+    static String text(Document document) {
+        char[] chars = new char[document.size()];
+        document.getText().getChars(0, chars.length, chars, 0);
+        return new String(chars);
+    }
+}
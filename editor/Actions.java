@@ -1,25 +1,99 @@
 package editor;
 
-public class Actions<Item> {
-    private Item item;
-    private Node cursor;
+// One edit that can be undone: a run of characters added at, or removed from, one place.
+// Typing or deleting next to the last edit extends its run instead of starting a new one, so
+// the history costs about two bytes a character rather than an object per keystroke.
+public class Actions {
     private boolean add;
+    // where the run starts in the text
+    private int offset;
+    // the characters of the run are chars[from, to), in the order they are in the text; a
+    // run of deletes grows towards the front as backspace goes back through the text
+    private char[] chars;
+    private int from;
+    private int to;
+    // false once the run may no longer be extended
+    private boolean open;
 
-    public Actions(Item item, Node cursor, boolean add) {
-        this.item = item;
-        this.cursor = cursor;
+    public Actions(boolean add, int offset, char[] text, int start, int length) {
         this.add = add;
+        this.offset = offset;
+        chars = new char[Math.max(16, length)];
+        from = add ? 0 : chars.length - length;
+        to = from + length;
+        System.arraycopy(text, start, chars, from, length);
+        open = true;
     }
 
     public boolean getAction() {
         return add;
     }
 
-    public Node getCursor() {
-        return cursor;
+    public int getOffset() {
+        return offset;
     }
 
-    public Item getItem() {
-        return item;
+    public int length() {
+        return to - from;
+    }
+
+    // copies the characters of the run into dst
+    public void getChars(char[] dst, int dstBegin) {
+        System.arraycopy(chars, from, dst, dstBegin, to - from);
+    }
+
+    // Makes the run include c, added at or removed from offset, if it is the same kind of
+    // edit right next to the run and the run is still open. A newline closes the run, so
+    // undo takes back at most a line of typing at a time.
+    public boolean extend(boolean add, int offset, char c) {
+        if (!open || add != this.add) {
+            return false;
+        }
+        if (add && offset == this.offset + length()) {
+            if (to == chars.length) {
+                grow();
+            }
+            chars[to] = c;
+            to += 1;
+        } else if (!add && offset + 1 == this.offset) {
+            if (from == 0) {
+                grow();
+            }
+            from -= 1;
+            chars[from] = c;
+            this.offset = offset;
+        } else {
+            return false;
+        }
+        if (c == '\n') {
+            open = false;
+        }
+        return true;
+    }
+
+    public void close() {
+        open = false;
+    }
+
+    // turns this into the edit that undoes it
+    public Actions reverse() {
+        add = !add;
+        open = false;
+        return this;
+    }
+
+    // roughly how many bytes the run takes up
+    public int memory() {
+        return 48 + 2 * chars.length;
+    }
+
+    // doubles the array, leaving the new room on the side the run grows towards
+    private void grow() {
+        char[] bigger = new char[chars.length * 2];
+        int start = add ? from : from + chars.length;
+        System.arraycopy(chars, from, bigger, start, to - from);
+        to = start + to - from;
+        from = start;
+        chars = bigger;
     }
 }
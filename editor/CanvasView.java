@@ -0,0 +1,141 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+
+/**
+ * Shows a Layout by drawing its lines onto a single Canvas, so the scene graph holds one
+ * node however much text is shown. The canvas covers the window and a band above and below
+ * it: scrolling within the band only moves the canvas, and an edit only redraws the lines it
+ * touched, down to the end of its paragraph, or to the bottom if lines were added or
+ * removed. The cursor is a separate node on top, so blinking never redraws the canvas.
+ */
+public class CanvasView implements TextRenderer {
+    // pixels drawn beyond each edge of the window
+    private static final int BAND = 512;
+
+    private Canvas canvas;
+    private GraphicsContext graphics;
+    private Layout layout;
+    private ReadableText text;
+    private Font font;
+    private char[] chars = new char[256];
+
+    // the document y the top of the canvas is at
+    private int canvasTop;
+    // the lines to draw again, first to last, unless everything is
+    private boolean allDirty = true;
+    private int dirtyFirst = Integer.MAX_VALUE;
+    private int dirtyLast = -1;
+    // the number of lines when the layout was last drawn or changed
+    private int lineCount;
+    // the layout's shifts when the canvas was drawn
+    private int shifts;
+
+    public CanvasView(Group textRoot, Layout layout, ReadableText text) {
+        this.layout = layout;
+        this.text = text;
+        canvas = new Canvas();
+        graphics = canvas.getGraphicsContext2D();
+        graphics.setTextBaseline(VPos.TOP);
+        graphics.setFill(Color.BLACK);
+        textRoot.getChildren().add(canvas);
+    }
+
+    public void invalidate() {
+        allDirty = true;
+    }
+
+    // marks the lines the edit may have moved, starting a line before it, as wrap does
+    public void changed(int offset, int removed, int inserted) {
+        int first = Math.max(0, layout.lineOf(offset) - 1);
+        int last;
+        if (layout.lineCount() != lineCount) {
+            last = Integer.MAX_VALUE;
+            lineCount = layout.lineCount();
+        } else {
+            int paragraph = text.lineOf(offset + inserted);
+            int end = paragraph + 1 < text.lineCount() ? text.lineStart(paragraph + 1) - 1 : text.size();
+            last = layout.lineOf(end);
+        }
+        dirtyFirst = Math.min(dirtyFirst, first);
+        dirtyLast = Math.max(dirtyLast, last);
+    }
+
+    public void render(Layout layout, TextStore text, Font font, int top, int height) {
+        if (font != this.font) {
+            this.font = font;
+            graphics.setFont(font);
+            allDirty = true;
+        }
+        int width = layout.getLeftMargin() + layout.getRightMargin();
+        if (canvas.getWidth() != width || canvas.getHeight() != height + 2 * BAND) {
+            canvas.setWidth(width);
+            canvas.setHeight(height + 2 * BAND);
+            allDirty = true;
+        }
+        if (top < canvasTop || top + height > canvasTop + canvas.getHeight()) {
+            canvasTop = Math.max(0, top - BAND);
+            canvas.setLayoutY(canvasTop);
+            allDirty = true;
+        }
+
+        int lineHeight = layout.lineHeight();
+        int first = canvasTop / lineHeight;
+        int last = (canvasTop + (int) canvas.getHeight()) / lineHeight;
+        // wrapping the stale paragraphs on the canvas can move the lines drawn there
+        layout.prepare(first, last);
+        if (layout.getShifts() != shifts) {
+            shifts = layout.getShifts();
+            allDirty = true;
+        }
+        last = Math.min(layout.lineCount() - 1, last);
+        if (allDirty) {
+            graphics.clearRect(0, 0, width, canvas.getHeight());
+        } else if (dirtyFirst <= dirtyLast) {
+            first = Math.max(first, dirtyFirst);
+            // below the last line there may be lines that were deleted
+            double bottom = dirtyLast == Integer.MAX_VALUE
+                    ? canvas.getHeight() : layout.y(dirtyLast + 1) - canvasTop;
+            last = Math.min(last, dirtyLast);
+            double from = Math.max(0, layout.y(first) - canvasTop);
+            if (from < bottom) {
+                graphics.clearRect(0, from, width, Math.min(canvas.getHeight(), bottom) - from);
+            }
+        } else {
+            last = first - 1;
+        }
+        for (int line = first; line <= last; line += 1) {
+            draw(line);
+        }
+        allDirty = false;
+        dirtyFirst = Integer.MAX_VALUE;
+        dirtyLast = -1;
+        lineCount = layout.lineCount();
+    }
+
+    private void draw(int line) {
+        GlyphMetrics metrics = layout.getMetrics();
+        int start = layout.lineStart(line);
+        int end = Math.min(layout.lineEnd(line), text.size());
+        if (end - start > chars.length) {
+            chars = new char[Math.max(end - start, chars.length * 2)];
+        }
+        text.getChars(start, end, chars, 0);
+
+        int x = layout.getLeftMargin();
+        int y = layout.y(line) - canvasTop;
+        for (int i = 0; i < end - start; i += 1) {
+            char c = chars[i];
+            if (c == '\n') {
+                continue;
+            }
+            graphics.fillText(Character.toString(c), x, y);
+            x += metrics.advance(c);
+        }
+    }
+}
@@ -0,0 +1,657 @@
+package editor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The text being edited, without any JavaFX: the buffer, the cursor, undo/redo and reading
+ * and writing the file. Newlines are always stored as '\n', whether they came from the
+ * keyboard as "\r" or from a file as "\r\n", except in a file that is mapped rather than
+ * loaded, which is shown the way it is stored. Saving writes each newline the way the file
+ * ended its first line.
+ */
+public class Document {
+    // by default the most undo entries kept and the most memory they may take up, which the
+    // editor.undo.entries and editor.undo.memory properties can change
+    private static final int HISTORY_ENTRIES = 1 << 16;
+    private static final long HISTORY_MEMORY = 16L << 20;
+    // how many characters load reads at a time
+    private static final int LOAD_BLOCK = 1 << 16;
+    // how many characters save encodes at a time
+    private static final int SAVE_BLOCK = 1 << 18;
+    // how much of a mapped file is added to the text first, and the most added at a time after
+    private static final int FIRST_MAPPED_BLOCK = 1 << 20;
+    private static final int LAST_MAPPED_BLOCK = 64 << 20;
+
+    private TextStore text;
+    private RecentStack<Actions> undo;
+    private RecentStack<Actions> redo;
+    // the bytes the undo and redo entries take up, which together stay under historyBudget
+    private long undoMemory;
+    private long redoMemory;
+    private long historyBudget;
+    private ArrayList<DocumentListener> listeners;
+    // counts the changes to the text, so work done on a snapshot can tell if it is still current
+    private long version;
+    private char[] single = new char[1];
+    // how the file was read and ended its lines, which is how it is written back
+    private Charset charset;
+    private String lineSeparator = "\n";
+    // true while a mapped file is still being added to the text
+    private volatile boolean mapping;
+    // the file that was mapped, and whether it is still the one at its path
+    private File mappedFile;
+    private volatile boolean mappedOnDisk;
+    // runs saves one after another, away from the thread that edits the text
+    private ExecutorService saver;
+    // the undo journal of the file, or null; and a mapped file whose journal is opened once
+    // it has all been added
+    private Journal journal;
+    private File journalFile;
+
+    public Document(TextStore text) {
+        this.text = text;
+        int entries = Integer.getInteger("editor.undo.entries", HISTORY_ENTRIES);
+        undo = new RecentStack<>(entries);
+        redo = new RecentStack<>(entries);
+        historyBudget = Long.getLong("editor.undo.memory", HISTORY_MEMORY);
+        listeners = new ArrayList<>();
+        charset = Charset.defaultCharset();
+        // the thread goes away when it has been idle for a second, so it does not keep the
+        // editor running, but a save started before the window closed still finishes
+        saver = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+    }
+
+    public void addListener(DocumentListener listener) {
+        listeners.add(listener);
+    }
+
+    private void changed(int offset, int removed, int inserted) {
+        version += 1;
+        for (DocumentListener listener : listeners) {
+            listener.changed(offset, removed, inserted);
+        }
+    }
+
+    public TextStore getText() {
+        return text;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return text.size();
+    }
+
+    public int getCursor() {
+        return text.getCursor();
+    }
+
+    public void setCursor(int offset) {
+        text.setCursor(offset);
+        // typing somewhere else starts a new undo entry
+        Actions last = undo.peek();
+        if (last != null) {
+            last.close();
+        }
+    }
+
+    // adds a character at the cursor
+    public void insert(char c) {
+        if (c == '\r') {
+            c = '\n';
+        }
+        text.add(c);
+        changed(text.getCursor() - 1, 0, 1);
+        record(true, text.getCursor() - 1, c);
+    }
+
+    // Adds string at the cursor as one edit, the way it would be pasted: the text is added in
+    // one step, listeners hear about it as one change, and one undo takes all of it back.
+    public void insert(String string) {
+        char[] chars = new char[string.length()];
+        int length = 0;
+        for (int i = 0; i < chars.length; i += 1) {
+            char c = string.charAt(i);
+            if (c != '\n' || i == 0 || string.charAt(i - 1) != '\r') {
+                chars[length] = c == '\r' ? '\n' : c;
+                length += 1;
+            }
+        }
+        if (length == 0) {
+            return;
+        }
+        int offset = text.getCursor();
+        text.add(chars, 0, length);
+        changed(offset, 0, length);
+
+        redo.clear();
+        redoMemory = 0;
+        Actions action = new Actions(true, offset, chars, 0, length);
+        action.close();
+        push(undo, action);
+        if (journal != null) {
+            journal.edit(true, offset, chars, 0, length);
+        }
+        trim();
+    }
+
+    // deletes the character behind the cursor
+    public void delete() {
+        char previous = text.charAt(text.getCursor() - 1);
+        text.remove();
+        changed(text.getCursor(), 1, 0);
+        record(false, text.getCursor(), previous);
+    }
+
+    // adds c, added at or removed from offset, to the last undo entry if it can, or pushes it
+    private void record(boolean add, int offset, char c) {
+        redo.clear();
+        redoMemory = 0;
+        Actions last = undo.peek();
+        if (last != null) {
+            int before = last.memory();
+            if (last.extend(add, offset, c)) {
+                undoMemory += last.memory() - before;
+                if (journal != null) {
+                    journal.extend(add, offset, c);
+                }
+                trim();
+                return;
+            }
+        }
+        single[0] = c;
+        push(undo, new Actions(add, offset, single, 0, 1));
+        if (journal != null) {
+            journal.edit(add, offset, single, 0, 1);
+        }
+        trim();
+    }
+
+    // Undoes the last entry. Entries that no longer fit in memory are read back from the
+    // journal, if there is one, which holds the whole history.
+    public boolean undo() {
+        Actions action;
+        if (!undo.isEmpty()) {
+            action = undo.pop();
+            undoMemory -= action.memory();
+        } else if (journal != null && journal.canUndo()) {
+            action = journal.undoEntry();
+        } else {
+            return false;
+        }
+        if (journal != null) {
+            journal.undone();
+        }
+        push(redo, apply(action));
+        // typing after an undo starts a new entry
+        if (!undo.isEmpty()) {
+            undo.peek().close();
+        }
+        return true;
+    }
+
+    public boolean redo() {
+        Actions action;
+        if (!redo.isEmpty()) {
+            action = redo.pop();
+            redoMemory -= action.memory();
+        } else if (journal != null && journal.canRedo()) {
+            // the journal has the entry as it was made, and the redo stack holds its reverse
+            action = journal.redoEntry().reverse();
+        } else {
+            return false;
+        }
+        if (journal != null) {
+            journal.redone();
+        }
+        push(undo, apply(action));
+        return true;
+    }
+
+    // Undoes action and returns the action that would undo that in turn. The whole run is
+    // added or removed in one step, and listeners hear about it as one change, so the layout
+    // rewraps the lines it touched once, however long the run is.
+    private Actions apply(Actions action) {
+        int offset = action.getOffset();
+        int length = action.length();
+        // test if the action was "add"
+        if (action.getAction()) {
+            text.setCursor(offset + length);
+            text.remove(length);
+            changed(offset, length, 0);
+        } else {
+            char[] chars = new char[length];
+            action.getChars(chars, 0);
+            text.setCursor(offset);
+            text.add(chars, 0, length);
+            changed(offset, 0, length);
+        }
+        return action.reverse();
+    }
+
+    private void push(RecentStack<Actions> stack, Actions action) {
+        Actions dropped = stack.push(action);
+        long change = action.memory() - (dropped == null ? 0 : dropped.memory());
+        if (stack == undo) {
+            undoMemory += change;
+        } else {
+            redoMemory += change;
+        }
+    }
+
+    // forgets the oldest undo entries until the history fits in its budget
+    private void trim() {
+        while (undoMemory + redoMemory > historyBudget && undo.size() > 1) {
+            undoMemory -= undo.removeOldest().memory();
+        }
+    }
+
+    // Adds the contents of file at the cursor, treating "\r\n" as a single newline, and keeps
+    // how its first line ends for saving. The file is read in large blocks that go into the
+    // text whole, listeners hear about it as one change, and it is not recorded for undo.
+    public void load(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            throw new IOException(file + " is larger than 2 GB");
+        }
+        charset = Charset.defaultCharset();
+        BufferedReader bufferedReader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), charset), LOAD_BLOCK);
+        char[] block = new char[LOAD_BLOCK];
+        int start = text.getCursor();
+
+        int read;
+        boolean afterReturn = false;
+        String separator = null;
+        try {
+            while ((read = bufferedReader.read(block, 0, block.length)) != -1) {
+                // turn "\r\n" and a lone '\r' into '\n' in place; "\r\n" may span two blocks
+                int length = 0;
+                for (int i = 0; i < read; i += 1) {
+                    char c = block[i];
+                    if (separator == null && afterReturn) {
+                        separator = c == '\n' ? "\r\n" : "\r";
+                    } else if (separator == null && c == '\n') {
+                        separator = "\n";
+                    }
+                    if (c != '\n' || !afterReturn) {
+                        block[length] = c == '\r' ? '\n' : c;
+                        length += 1;
+                    }
+                    afterReturn = c == '\r';
+                }
+                text.add(block, 0, length);
+            }
+            if (separator == null) {
+                separator = afterReturn ? "\r" : "\n";
+            }
+            lineSeparator = separator;
+        } finally {
+            bufferedReader.close();
+            // whatever was read before a failure is still in the text
+            changed(start, 0, text.getCursor() - start);
+        }
+    }
+
+    // Whether file should be mapped rather than loaded: only if the editor.open property is
+    // "mapped", since a mapped file is read one byte per character, which shows any other
+    // encoding wrongly. Only a piece table can be mapped.
+    public boolean shouldMap(File file) {
+        String mode = System.getProperty("editor.open", "read");
+        return mode.equals("mapped") && text instanceof PieceTable && text.size() == 0;
+    }
+
+    /**
+     * Opens file without reading it into memory. The file becomes the original buffer of the
+     * piece table, and a background thread finds its newlines and adds it to the end of the
+     * text in growing blocks, the first of which is small, so the top of the file can be shown
+     * almost at once. Each block is added, and listeners told, by a task given to ui, which
+     * must run it on the thread that edits the document.
+     */
+    public void map(File file, final Executor ui) throws IOException {
+        final MappedText source = new MappedText(file);
+        final PieceTable table = (PieceTable) text;
+        table.setOriginal(source);
+        charset = StandardCharsets.ISO_8859_1;
+        lineSeparator = lineSeparator(source);
+        mappedFile = file;
+        mappedOnDisk = true;
+        mapping = true;
+
+        Thread indexer = new Thread(new Runnable() {
+            public void run() {
+                int block = FIRST_MAPPED_BLOCK;
+                int from = 0;
+                do {
+                    final int end = (int) Math.min(source.length(), (long) from + block);
+                    source.index(from, end);
+                    final int[] lines = source.lines();
+                    final int lineCount = source.lineCount();
+                    ui.execute(new Runnable() {
+                        public void run() {
+                            int start = table.size();
+                            table.appendMapped(end, lines, lineCount);
+                            mapping = end < source.length();
+                            changed(start, 0, table.size() - start);
+                            if (!mapping && journalFile != null) {
+                                openJournal();
+                            }
+                        }
+                    });
+                    from = end;
+                    block = Math.min(LAST_MAPPED_BLOCK, block * 2);
+                } while (from < source.length());
+            }
+        }, "Index " + file.getName());
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    // How the first line of a mapped file ends, looked for only as far as the first block
+    // shown, so that a file without a line break is not read through; "\n" if it is not there.
+    private static String lineSeparator(MappedText source) {
+        int end = Math.min(source.length(), FIRST_MAPPED_BLOCK);
+        char[] block = new char[LOAD_BLOCK];
+        for (int from = 0; from < end; from += block.length) {
+            int count = Math.min(block.length, end - from);
+            source.getChars(from, from + count, block, 0);
+            for (int i = 0; i < count; i += 1) {
+                if (block[i] == '\n') {
+                    return "\n";
+                }
+                if (block[i] == '\r') {
+                    return from + i + 1 < source.length() && source.charAt(from + i + 1) == '\n'
+                            ? "\r\n" : "\r";
+                }
+            }
+        }
+        return "\n";
+    }
+
+    // Keeps the undo history of file, which the text must have just been read from, in a
+    // journal next to it if the editor.journal property is true, and makes the edits to it
+    // that were not saved again. Returns whether there were any. A mapped file's journal is
+    // opened once all of it has been added.
+    public boolean journal(File file) throws IOException {
+        if (!Boolean.getBoolean("editor.journal")) {
+            return false;
+        }
+        if (mapping) {
+            journalFile = file;
+            return false;
+        }
+        journal = new Journal(file, mappedFile != null);
+        if (!journal.matches()) {
+            journal.reset();
+            return false;
+        }
+        return journal.replay(new Journal.Replay() {
+            public void change(Actions edit) {
+                apply(edit.reverse());
+            }
+        });
+    }
+
+    // opens the journal of the mapped file, unless the text was edited while it was being
+    // added, in which case the text is no longer the file and the journal cannot start from it
+    private void openJournal() {
+        File file = journalFile;
+        journalFile = null;
+        if (!undo.isEmpty() || !redo.isEmpty()) {
+            return;
+        }
+        try {
+            journal(file);
+        } catch (IOException exception) {
+            journal = null;
+        }
+    }
+
+    // Records the text as it is now in the journal if file is the one it is kept for, and
+    // returns where, for saved to mark once the text is on disk, or 0.
+    private int checkpoint(File file) {
+        if (journal == null || !file.getAbsoluteFile().equals(journal.getFile())) {
+            return 0;
+        }
+        // the journal starts a new record after a checkpoint, so typing starts a new entry
+        Actions last = undo.peek();
+        if (last != null) {
+            last.close();
+        }
+        return journal.checkpoint();
+    }
+
+    // Saves the text as it is now to file on a background thread, so that it can go on being
+    // edited meanwhile. listener hears how the save is getting on, from that thread.
+    public void save(final File file, final SaveListener listener) {
+        if (mapping) {
+            listener.failed(file, new IOException(file + " is still being opened"));
+            return;
+        }
+        final ReadableText snapshot = text.snapshot();
+        final Charset charset = this.charset;
+        final String lineSeparator = this.lineSeparator;
+        final Journal journal = this.journal;
+        final int checkpoint = checkpoint(file);
+        saver.execute(new Runnable() {
+            public void run() {
+                try {
+                    write(file, snapshot, charset, lineSeparator, listener);
+                    if (checkpoint != 0) {
+                        journal.saved(checkpoint);
+                    }
+                    listener.saved(file);
+                } catch (IOException exception) {
+                    listener.failed(file, exception);
+                }
+            }
+        });
+    }
+
+    // saves the text to file before returning
+    public void save(File file) throws IOException {
+        if (mapping) {
+            throw new IOException(file + " is still being opened");
+        }
+        int checkpoint = checkpoint(file);
+        write(file, text, charset, lineSeparator, null);
+        if (checkpoint != 0) {
+            journal.saved(checkpoint);
+        }
+    }
+
+    /**
+     * Replaces the contents of file with text. The text is encoded a block at a time into a
+     * new file in the same directory, which is forced to disk and then renamed over file in
+     * one step, so whenever the editor stops, file holds either the old text or the new text
+     * and never part of one. A mapped file is not cut short while it is being read either.
+     *
+     * Saving a mapped file only encodes what was typed: the parts still in the file are
+     * copied across with transferTo, and if none of them has moved, because every edit kept
+     * the length of what it replaced, the typed parts are written over the file in place.
+     */
+    private void write(File file, ReadableText text, Charset charset, String lineSeparator,
+                       SaveListener listener) throws IOException {
+        Path target = file.toPath().toAbsolutePath();
+        PieceTable pieces = null;
+        if (text instanceof PieceTable && ((PieceTable) text).isMapped()) {
+            pieces = (PieceTable) text;
+        }
+        if (pieces != null && !pieces.fitsMapped()) {
+            throw new IOException(file + " was opened one byte per character, and some of the"
+                    + " characters typed do not fit in a byte");
+        }
+        boolean toMappedFile = pieces != null
+                && target.equals(mappedFile.toPath().toAbsolutePath());
+        if (toMappedFile && mappedOnDisk && pieces.matchesMapped(lineSeparator)) {
+            // This is not all-or-nothing like the rename: a crash part way leaves only some
+            // of the edits written, though the rest of the file is already the same.
+            FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE);
+            try {
+                pieces.patchMapped(channel, lineSeparator, listener);
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            return;
+        }
+
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        boolean saved = false;
+        try {
+            FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            try {
+                if (pieces != null) {
+                    pieces.transferMapped(channel, lineSeparator, listener);
+                } else {
+                    encode(text, charset, lineSeparator, channel, listener);
+                }
+                // the text has to be on disk before the rename makes it the file
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+            keepPermissions(target, temp);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            saved = true;
+        } finally {
+            if (!saved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        forceDirectory(target.getParent());
+        if (toMappedFile) {
+            // the mapping still reads the old file, which is no longer at the path
+            mappedOnDisk = false;
+        }
+    }
+
+    // encodes text into channel, SAVE_BLOCK characters at a time, with each newline written
+    // as lineSeparator
+    private static void encode(ReadableText text, Charset charset, String lineSeparator,
+                               FileChannel channel, SaveListener listener) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        // room for every character of a block to be a newline that becomes two
+        int grow = lineSeparator.length();
+        CharBuffer in = CharBuffer.allocate(SAVE_BLOCK * grow);
+        // large enough that a whole block always fits
+        ByteBuffer out = ByteBuffer.allocateDirect((int) Math.ceil(in.capacity() * encoder.maxBytesPerChar()));
+        int size = text.size();
+        int start = 0;
+        boolean last;
+        do {
+            // the block may begin with half a surrogate pair left over from the last one
+            int count = Math.min(in.remaining() / grow, size - start);
+            text.getChars(start, start + count, in.array(), in.position());
+            in.position(separate(in.array(), in.position(), in.position() + count,
+                    lineSeparator));
+            start += count;
+            last = start == size;
+
+            in.flip();
+            encoder.encode(in, out, last);
+            if (last) {
+                encoder.flush(out);
+            }
+            in.compact();
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+            if (listener != null) {
+                listener.progress(start, size);
+            }
+        } while (!last);
+    }
+
+    // Rewrites each newline in chars[start, end) as lineSeparator, in place from the back when
+    // it is longer, and returns the new end.
+    private static int separate(char[] chars, int start, int end, String lineSeparator) {
+        if (lineSeparator.equals("\n")) {
+            return end;
+        }
+        if (lineSeparator.length() == 1) {
+            for (int i = start; i < end; i += 1) {
+                if (chars[i] == '\n') {
+                    chars[i] = lineSeparator.charAt(0);
+                }
+            }
+            return end;
+        }
+        int newlines = 0;
+        for (int i = start; i < end; i += 1) {
+            if (chars[i] == '\n') {
+                newlines += 1;
+            }
+        }
+        // the separator is "\r\n"
+        int grown = end + newlines;
+        int to = grown;
+        for (int i = end - 1; i >= start && newlines > 0; i -= 1) {
+            to -= 1;
+            chars[to] = chars[i];
+            if (chars[i] == '\n') {
+                to -= 1;
+                chars[to] = '\r';
+                newlines -= 1;
+            }
+        }
+        return grown;
+    }
+
+    // gives the new file the permissions of the one it replaces, where the system has them
+    private static void keepPermissions(Path target, Path temp) throws IOException {
+        try {
+            if (Files.exists(target)) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            }
+        } catch (UnsupportedOperationException exception) {
+            // not a POSIX file system; the new file gets the default permissions
+        }
+    }
+
+    // makes the rename itself last through a crash, on systems that can sync a directory
+    private static void forceDirectory(Path directory) {
+        try {
+            FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        } catch (IOException exception) {
+            // directories cannot be opened on every system; the file itself is already safe
+        }
+    }
+}
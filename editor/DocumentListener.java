@@ -0,0 +1,8 @@
+package editor;
+
+// Told about every change to a Document, so that whatever depends on the text can update
+// only the part that changed.
+public interface DocumentListener {
+    // removed characters were replaced by inserted characters, starting at offset
+    void changed(int offset, int removed, int inserted);
+}
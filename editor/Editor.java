@@ -1,23 +1,25 @@
 package editor;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.event.EventHandler;
 import javafx.geometry.Orientation;
-import javafx.geometry.VPos;
 import javafx.scene.Group;
 import javafx.scene.Scene;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.input.Clipboard;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.paint.Color;
-import javafx.scene.text.Font;
-import javafx.scene.text.Text;
 import javafx.stage.Stage;
 import java.io.*;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import javafx.scene.control.ScrollBar;
 
 public class Editor extends Application {
@@ -26,6 +28,8 @@ public class Editor extends Application {
     private static int WINDOW_HEIGHT = 500;
     private static int LEFT_MARGIN = 5;
     private static int RIGHT_MARGIN;
+    private static final String TITLE = "Text Editor";
+    private Stage stage;
     private Group textRoot;
     private Cursor cursor = new Cursor();
     private ScrollBar scrollBar = new ScrollBar();
@@ -57,24 +61,45 @@ public class Editor extends Application {
      * An EventHandler to handle keys that get pressed.
      */
     private class KeyEventHandler implements EventHandler<KeyEvent> {
-        //The coordinates where the each text should be displayed
+        //The coordinates where the cursor should be displayed
         private int cursorX;
         private int cursorY;
 
-        //The Text to display on the screen.
-        private Text displayText;
         private int fontSize = 12;
-        private ArrayList<Node> lines;
-        private TextBuffer<Text> buffer;
-        private boolean readingFile = false;
-
         private String fontName = "Verdana";
 
-        private int characterWidth;
-        private int characterHeight;
-
-        private RecentStack<Actions<Text>> undo;
-        private RecentStack<Actions<Text>> redo;
+        // The text and its layout, which know nothing about JavaFX, and the view showing them.
+        private Document document;
+        private TextMetrics metrics;
+        private Layout layout;
+        private LayoutWorker relayout;
+        // shows the layout once it has been wrapped again
+        private Runnable laidOut = new Runnable() {
+            public void run() {
+                view.invalidate();
+                redraw();
+                updateCursor();
+            }
+        };
+        // Shows the heights the worker found for paragraphs off screen. Those above the window
+        // move the text in it, so the window is scrolled to keep the same text at its top.
+        private Runnable refined = new Runnable() {
+            public void run() {
+                int top = layout.y(layout.lineOf(anchor)) + anchorBelow;
+                scrollBar.setMax(Math.max(0, layout.height() - WINDOW_HEIGHT));
+                scrollBar.setValue(Math.max(0, Math.min(scrollBar.getMax(), top)));
+                cursorY = layout.y(layout.lineOf(document.getCursor()));
+                cursor.returnRectangle().setY(cursorY);
+                render();
+            }
+        };
+        // the first offset on the line at the top of the window when it was last rendered,
+        // and how far below the top of that line the window starts
+        private int anchor;
+        private int anchorBelow;
+        private TextRenderer view;
+        // how long frames take, if -Deditor.frames=true, or null
+        private FrameTimer frames;
 
         Application.Parameters params = getParameters();
         List<String> args = params.getRaw();
@@ -83,23 +108,31 @@ public class Editor extends Application {
         public KeyEventHandler(final Group root, int windowWidth, int windowHeight) {
             cursorX = LEFT_MARGIN;
             cursorY = 0;
-            lines = new ArrayList<>();
-            buffer = new TextBuffer<>();
             textRoot = new Group();
-            undo = new RecentStack<>();
-            redo = new RecentStack<>();
-
-            // Initialize some empty text and add it to root so that it will be displayed.
-            // Prevents slow first character typed
-            displayText = new Text(cursorX, cursorY, "");
-            displayText.setTextOrigin(VPos.TOP);
-            displayText.setFont(Font.font(fontName, fontSize));
-
-            characterWidth = (int) Math.round(displayText.getLayoutBounds().getWidth());
-            characterHeight = (int) Math.round(displayText.getLayoutBounds().getHeight());
+            document = new Document(TextStores.create());
+            metrics = new TextMetrics(fontName, fontSize);
+            layout = new Layout(document.getText(), metrics, LEFT_MARGIN);
+            layout.setRightMargin(RIGHT_MARGIN);
+            document.addListener(layout);
+            relayout = new LayoutWorker(document, layout, new Executor() {
+                public void execute(Runnable task) {
+                    Platform.runLater(task);
+                }
+            }, refined);
+            document.addListener(relayout);
+            String renderer = System.getProperty("editor.renderer", "nodes");
+            if (renderer.equals("canvas")) {
+                view = new CanvasView(textRoot, layout, document.getText());
+            } else {
+                view = new TextView(textRoot);
+            }
+            document.addListener(view);
+            if (Boolean.getBoolean("editor.frames")) {
+                frames = new FrameTimer(renderer);
+                frames.start();
+            }
 
             // All new Nodes need to be added to the root in order to be displayed.
-            textRoot.getChildren().add(displayText);
             root.getChildren().add(textRoot);
 
             if (args.size() < 1) {
@@ -107,40 +140,54 @@ public class Editor extends Application {
                 System.exit(1);
             }
 
+            inputFilename = args.get(0);
+            File inputFile = new File(inputFilename);
             try {
-                inputFilename = args.get(0);
-                File inputFile = new File(inputFilename);
-
-                FileReader reader = new FileReader(inputFile);
-
-                BufferedReader bufferedReader = new BufferedReader(reader);
-
-                int intRead;
-                // Keep reading from the file input read() returns -1, which means the end of the file
-                // was reached.
-                while ((intRead = bufferedReader.read()) != -1) {
-                    // The integer read can be cast to a char, because we're assuming ASCII.
-                    char charRead = (char) intRead;
-                    readingFile = true;
-                    String character = Character.toString(charRead);
-                    addCharacter(character);
+                if (document.shouldMap(inputFile)) {
+                    // the file is added to the text in blocks as it is indexed, so show
+                    // each block once the layout has wrapped it
+                    document.map(inputFile, new Executor() {
+                        public void execute(final Runnable task) {
+                            Platform.runLater(new Runnable() {
+                                public void run() {
+                                    task.run();
+                                    redraw();
+                                }
+                            });
+                        }
+                    });
+                } else {
+                    document.load(inputFile);
                 }
-
-                readingFile = false;
-                reposition(buffer);
-
-                // reset the cursor to the beginning of the file
-                buffer.cursorNode = buffer.sentinel_front.next;
-                updateCursor();
-
-                // Close the reader.
-                bufferedReader.close();
-
             } catch (FileNotFoundException fileNotFoundException) {
+                if (inputFile.exists()) {
+                    // the file is there but cannot be read, and saving would replace it
+                    System.out.println("Could not open " + inputFilename + ": " + fileNotFoundException);
+                    System.exit(1);
+                }
                 System.out.println("File not found! Exception was: " + fileNotFoundException);
             } catch (IOException ioException) {
-                System.out.println("Error when copying; exception was: " + ioException);
+                // the text holds at most part of the file, and saving would replace it
+                System.out.println("Could not open " + inputFilename + ": " + ioException);
+                System.exit(1);
             }
+
+            if (inputFile.exists()) {
+                try {
+                    if (document.journal(inputFile)) {
+                        System.out.println("Recovered unsaved edits to " + inputFilename);
+                    }
+                } catch (IOException ioException) {
+                    System.out.println("No undo journal for " + inputFilename + ": " + ioException);
+                }
+            }
+
+            // the layout wraps what is shown, and the worker the rest
+            redraw();
+
+            // reset the cursor to the beginning of the file
+            document.setCursor(0);
+            updateCursor();
         }
 
         @Override
@@ -162,12 +209,14 @@ public class Editor extends Application {
                 if (keyEvent.isShortcutDown()) {
                     if (code == KeyCode.PLUS || code == KeyCode.EQUALS) {
                         fontSize += 4;
-                        reposition(buffer);
+                        metrics.setFont(fontName, fontSize);
+                        reposition();
                         updateCursor();
 
                     } else if (code == KeyCode.MINUS) {
                         fontSize = Math.max(4, fontSize - 4);
-                        reposition(buffer);
+                        metrics.setFont(fontName, fontSize);
+                        reposition();
                         updateCursor();
 
                     } else if (code == KeyCode.P) {
@@ -175,361 +224,220 @@ public class Editor extends Application {
                         System.out.println(cursorX + ", " + cursorY);
 
                     } else if (code == KeyCode.S) {
-                        try {
-                            FileWriter writer = new FileWriter(inputFilename);
-                            Node ptr = buffer.sentinel_front.next;
-                            while (ptr != buffer.sentinel_back) {
-                                Text text = (Text) ptr.item;
-                                writer.write(text.getText().charAt(0));
-                                ptr = ptr.next;
+                        // saved in the background, with how far it got shown in the title
+                        document.save(new File(inputFilename), new SaveListener() {
+                            public void progress(final int written, final int total) {
+                                Platform.runLater(new Runnable() {
+                                    public void run() {
+                                        long percent = total == 0 ? 100 : written * 100L / total;
+                                        stage.setTitle(TITLE + " - saving " + percent + "%");
+                                    }
+                                });
                             }
-                            writer.close();
-                        } catch (IOException ioException) {
-                            System.out.println("Error when copying; exception was: " + ioException);
-                        }
-                    } else if (code == KeyCode.Z) {
-                        if (!undo.isEmpty()) {
-                            Actions action = undo.pop();
-
-                            // test if the action was "add"
-                            if (action.getAction()) {
-                                buffer.cursorNode = action.getCursor();
-                                textRoot.getChildren().remove(action.getItem());
-                                buffer.remove();
-
-                                reposition(buffer);
-
-                                updateCursor();
 
-                                Node cursorPosition = buffer.cursorNode;
-                                redo.push(new Actions(action.getItem(), cursorPosition, false));
-                            } else {
-                                buffer.cursorNode = action.getCursor();
-                                textRoot.getChildren().add((Text) action.getItem());
-                                buffer.add((Text) action.getItem());
-
-                                reposition(buffer);
-
-                                updateCursor();
+                            public void saved(File file) {
+                                Platform.runLater(new Runnable() {
+                                    public void run() {
+                                        stage.setTitle(TITLE);
+                                    }
+                                });
+                            }
 
-                                Node cursorPosition = buffer.cursorNode;
-                                redo.push(new Actions(action.getItem(), cursorPosition, true));
+                            public void failed(File file, final IOException ioException) {
+                                System.out.println("Error when copying; exception was: " + ioException);
+                                Platform.runLater(new Runnable() {
+                                    public void run() {
+                                        stage.setTitle(TITLE + " - not saved");
+                                    }
+                                });
                             }
+                        });
+                    } else if (code == KeyCode.V) {
+                        String pasted = Clipboard.getSystemClipboard().getString();
+                        if (pasted != null) {
+                            document.insert(pasted);
+                            redraw();
+                            updateCursor();
                         }
 
-                    } else if (code == KeyCode.Y) {
-                        if (!redo.isEmpty()) {
-                            Actions action = redo.pop();
-
-                            // test if the action was "add"
-                            if (action.getAction()) {
-                                buffer.cursorNode = action.getCursor();
-                                textRoot.getChildren().remove(action.getItem());
-                                buffer.remove();
-
-                                reposition(buffer);
-
-                                updateCursor();
+                    } else if (code == KeyCode.Z) {
+                        if (document.undo()) {
+                            redraw();
+                            updateCursor();
+                        }
 
-                                Node cursorPosition = buffer.cursorNode;
-                                undo.push(new Actions(action.getItem(), cursorPosition, false));
-                            } else {
-                                buffer.cursorNode = action.getCursor();
-                                textRoot.getChildren().add((Text) action.getItem());
-                                buffer.add((Text) action.getItem());
+                    } else if (code == KeyCode.Y) {
+                        if (document.redo()) {
+                            redraw();
+                            updateCursor();
+                        }
 
-                                reposition(buffer);
+                    } else if (code == KeyCode.HOME) {
+                        document.setCursor(0);
+                        updateCursor();
 
-                                updateCursor();
+                    } else if (code == KeyCode.END) {
+                        document.setCursor(document.size());
+                        updateCursor();
 
-                                Node cursorPosition = buffer.cursorNode;
-                                undo.push(new Actions(action.getItem(), cursorPosition, true));
-                            }
-                        }
+                    } else if (code == KeyCode.G) {
+                        goToLine();
                     }
 
                 } else {
                     if (code == KeyCode.BACK_SPACE) {
-                        if (buffer.cursorNode != buffer.sentinel_front.next) {
+                        if (document.getCursor() != 0) {
                             remove();
                         }
 
                     } else if (code == KeyCode.LEFT) {
-                        if (buffer.cursorNode != buffer.sentinel_front.next) {
-                            buffer.cursorNode = buffer.cursorNode.prev;
+                        if (document.getCursor() != 0) {
+                            document.setCursor(document.getCursor() - 1);
                             updateCursor();
                         }
 
                     } else if (code == KeyCode.RIGHT) {
-                        if (buffer.cursorNode != buffer.sentinel_back) {
-                            buffer.cursorNode = buffer.cursorNode.next;
+                        if (document.getCursor() != document.size()) {
+                            document.setCursor(document.getCursor() + 1);
                             updateCursor();
                         }
                     } else if (code == KeyCode.UP) {
-                        if (lines.size() != 0) {
-                            int current_line;
-                            int targetX;
-                            int diff1;
-                            int diff2;
-                            Node targetNode;
-                            Text targetText;
-
-                            // checks for current_line if cursor at sentinel_back
-                            if (buffer.cursorNode == buffer.sentinel_back) {
-                                targetNode = buffer.cursorNode.prev;
-                                targetText = (Text) targetNode.item;
-                                current_line = (int) Math.round(targetText.getY() / characterHeight);
-                                targetX = (int) Math.round(targetText.getX() + targetText.getLayoutBounds().getWidth());
-                            } else {
-                                targetText = (Text) buffer.cursorNode.item;
-                                current_line = (int) Math.round(targetText.getY() / characterHeight);
-                                targetX = (int) Math.round(targetText.getX());
-                            }
-
-                            if (current_line != 0) {
-                                Node cursor_ptr = lines.get(current_line - 1);
-
-                                Node next_line_ptr = lines.get(current_line);
-
-                                // loop until the next line
-                                while (cursor_ptr != next_line_ptr) {
-                                    Text currentText = (Text) cursor_ptr.item;
-                                    int currentX = (int) Math.round(currentText.getX());
-
-                                    if (currentX > targetX) {
-                                        Node previousNode = cursor_ptr.prev;
-                                        Text previousText = (Text) previousNode.item;
-                                        int previousX = (int) Math.round(previousText.getX());
-                                        diff1 = Math.abs(currentX - targetX);
-                                        diff2 = Math.abs(previousX - targetX);
-                                        if (diff1 > diff2) {
-                                            cursor_ptr = cursor_ptr.prev;
-                                        }
-                                        break;
-                                    } else {
-                                        cursor_ptr = cursor_ptr.next;
-                                    }
-                                }
-
-                                // checks for uneven lines
-                                if (cursor_ptr != next_line_ptr) {
-                                    buffer.cursorNode = cursor_ptr;
-                                } else {
-                                    buffer.cursorNode = cursor_ptr.prev;
-                                }
-                            }
-                            updateCursor();
+                        int current_line = layout.lineOf(document.getCursor());
+                        if (current_line != 0) {
+                            document.setCursor(layout.offsetAt(current_line - 1, cursorX));
                         }
+                        updateCursor();
 
                     } else if (code == KeyCode.DOWN) {
-                        if (lines.size() != 0) {
-                            int current_line;
-                            int targetX;
-
-                            // checks for current_line if cursor at sentinel_back
-                            if (buffer.cursorNode == buffer.sentinel_back) {
-                                Node targetNode = buffer.cursorNode.prev;
-                                Text targetText = (Text) targetNode.item;
-                                current_line = (int) Math.round(targetText.getY() / characterHeight);
-                                targetX = (int) Math.round(targetText.getX() + targetText.getLayoutBounds().getWidth());
-                            } else {
-                                Text targetText = (Text) buffer.cursorNode.item;
-                                current_line = (int) Math.round(targetText.getY() / characterHeight);
-                                targetX = (int) Math.round(targetText.getX());
-                            }
-
-                            if (current_line != lines.size() - 1) {
-                                Node cursor_ptr = lines.get(current_line + 1);
-                                Text currentText;
-                                int currentX;
+                        int current_line = layout.lineOf(document.getCursor());
+                        if (current_line != layout.lineCount() - 1) {
+                            document.setCursor(layout.offsetAt(current_line + 1, cursorX));
+                        }
+                        updateCursor();
 
-                                Node next_ptr = cursor_ptr.next;
-                                Text nextText = (Text) next_ptr.item;
-                                int nextX = (int) Math.round(nextText.getX());
+                    } else if (code == KeyCode.HOME) {
+                        document.setCursor(layout.lineStart(layout.lineOf(document.getCursor())));
+                        updateCursor();
 
-                                while (nextX != LEFT_MARGIN) {
-                                    if (next_ptr == buffer.sentinel_back) {
-                                        currentText = (Text) cursor_ptr.item;
-                                        currentX = (int) Math.round(currentText.getX());
+                    } else if (code == KeyCode.END) {
+                        document.setCursor(
+                                layout.lastPosition(layout.lineOf(document.getCursor())));
+                        updateCursor();
 
-                                        cursor_ptr = cursor_ptr.next;
-                                        break;
-                                    } else {
-                                        currentText = (Text) cursor_ptr.item;
-                                        currentX = (int) Math.round(currentText.getX());
+                    } else if (code == KeyCode.PAGE_UP) {
+                        page(-1);
 
-                                        nextText = (Text) next_ptr.item;
-                                        nextX = (int) Math.round(nextText.getX());
-                                    }
-                                    if (currentX >= targetX) {
-                                        Node previousNode = cursor_ptr.prev;
-                                        Text previousText = (Text) previousNode.item;
-                                        int previousX = (int) Math.round(previousText.getX());
-                                        int diff1 = Math.abs(currentX - targetX);
-                                        int diff2 = Math.abs(previousX - targetX);
-                                        if (diff1 > diff2) {
-                                            cursor_ptr = cursor_ptr.prev;
-                                        }
-                                        break;
-                                    } else {
-                                        cursor_ptr = cursor_ptr.next;
-                                        next_ptr = next_ptr.next;
-                                    }
-                                }
-                                if (nextX != LEFT_MARGIN) {
-                                    buffer.cursorNode = cursor_ptr;
-                                } else {
-                                    buffer.cursorNode = cursor_ptr.prev;
-                                }
-                            }
-                            updateCursor();
-                        }
+                    } else if (code == KeyCode.PAGE_DOWN) {
+                        page(1);
                     }
                 }
             }
         }
 
-        // adds characters at the current position of the cursor
-        public void addCharacter(String characterTyped) {
-            Text text = new Text(cursorX, cursorY, characterTyped);
-            text.setTextOrigin(VPos.TOP);
-            text.setFont(Font.font(fontName, fontSize));
-
-            textRoot.getChildren().add(text);
-            buffer.add(text);
+        // Moves the cursor and the view a window's worth of lines up or down, keeping the
+        // cursor in the same place in the window where it can.
+        public void page(int direction) {
+            int lines = Math.max(1, WINDOW_HEIGHT / layout.lineHeight());
+            int current_line = layout.lineOf(document.getCursor());
+            int line = Math.max(0, Math.min(layout.lineCount() - 1, current_line + direction * lines));
+            double top = scrollBar.getValue() + direction * lines * layout.lineHeight();
+            scrollBar.setValue(Math.max(scrollBar.getMin(), Math.min(scrollBar.getMax(), top)));
+            document.setCursor(layout.offsetAt(line, cursorX));
+            updateCursor();
+        }
 
-            if (!readingFile) {
-                reposition(buffer);
+        // asks for a line number and moves the cursor to the start of that line of the text
+        public void goToLine() {
+            TextInputDialog dialog = new TextInputDialog();
+            dialog.setTitle(TITLE);
+            dialog.setHeaderText(null);
+            dialog.setContentText("Go to line (1 - " + document.getText().lineCount() + "):");
+            Optional<String> answer = dialog.showAndWait();
+            if (answer.isPresent()) {
+                try {
+                    int line = Integer.parseInt(answer.get().trim()) - 1;
+                    line = Math.max(0, Math.min(document.getText().lineCount() - 1, line));
+                    document.setCursor(document.getText().lineStart(line));
+                    updateCursor();
+                } catch (NumberFormatException exception) {
+                    // not a number, so stay where we are
+                }
             }
+        }
 
+        // adds characters at the current position of the cursor
+        public void addCharacter(String characterTyped) {
+            if (characterTyped.length() == 1) {
+                document.insert(characterTyped.charAt(0));
+            } else {
+                // an input method can type several characters at once
+                document.insert(characterTyped);
+            }
+            redraw();
             updateCursor();
-
-            Node cursorPositon = buffer.cursorNode;
-            undo.push(new Actions(text, cursorPositon, true));
-            redo.clear();
         }
 
         // deletes characters behind the current position of the cursor
         public void remove() {
-            Text previousCharacter = (Text) buffer.cursorNode.prev.item;
-
-            textRoot.getChildren().remove(previousCharacter);
-            buffer.remove();
-
-            reposition(buffer);
-
+            document.delete();
+            redraw();
             updateCursor();
+        }
 
-            Node cursorPositon = buffer.cursorNode;
-            undo.push(new Actions(previousCharacter, cursorPositon, false));
-            redo.clear();
+        // lays out all the characters again, after the font changed; only what is on screen
+        // is wrapped at once, and the rest in the background
+        public void reposition() {
+            relayout.reflow(RIGHT_MARGIN, laidOut);
         }
 
-        // repositions all the characters again
-        public void reposition(TextBuffer<Text> buffer) {
-            int textX = LEFT_MARGIN;
-            int textY = 0;
-            Node spaceNode = buffer.sentinel_front;
-
-            Node currentNode = buffer.sentinel_front;
-
-            //resets first line pointers every time buffer is repositioned
-            lines.clear();
-
-            while (currentNode != buffer.sentinel_back.prev) {
-                Node characterNode = currentNode.next;
-                Text character = (Text) characterNode.item;
-                character.setTextOrigin(VPos.TOP);
-                character.setFont(Font.font(fontName, fontSize));
-                characterWidth = (int) Math.round(character.getLayoutBounds().getWidth());
-
-                character.setX(textX);
-                character.setY(textY);
-
-                // add pointers to each of the first lines
-                // STUPID "\r\n" WHEN READING A FILE
-                if (character.getX() == LEFT_MARGIN) {
-                    //if (!character.getText().equals("\n")) {
-                    lines.add(characterNode);
-                    //}
-                }
+        // Applies the size of the window, however many times it changed since the last pulse.
+        // Only a new width wraps the text again, and then only the paragraphs that do not fit
+        // on one line; a new height just shows more or fewer lines.
+        public void resized() {
+            int usableScreenWidth =
+                    (int) Math.round(WINDOW_WIDTH - scrollBar.getLayoutBounds().getWidth());
+            scrollBar.setLayoutX(usableScreenWidth);
+            scrollBar.setPrefHeight(WINDOW_HEIGHT);
+
+            // assign the right margin based of the usable screen width
+            int rightMargin = usableScreenWidth - LEFT_MARGIN;
+            if (rightMargin != RIGHT_MARGIN) {
+                RIGHT_MARGIN = rightMargin;
+                relayout.resize(RIGHT_MARGIN, laidOut);
+            } else {
+                redraw();
+            }
+        }
 
-                if (character.getText().equals("\r")) {
-                    textX = LEFT_MARGIN;
-                    textY += characterHeight;
-                } else {
-                    // store the index of the most recent space character
-                    // distinguish last word before word wrap
-                    if (character.getText().equals(" ")) {
-                        spaceNode = characterNode;
-                    }
-                    // the newline character has twice the height of normal characters
-                    characterHeight = (int) Math.round(character.getLayoutBounds().getHeight());
-                }
+        // shows the layout after an edit, which the layout has already re-wrapped and the view
+        // has heard about
+        public void redraw() {
+            scrollBar.setMax(Math.max(0, layout.height() - WINDOW_HEIGHT));
+            // setMax leaves the value where it was, past the end once the text got shorter
+            if (scrollBar.getValue() > scrollBar.getMax()) {
+                scrollBar.setValue(scrollBar.getMax());
+            }
+            render();
+        }
 
-                // check for word wrapping
-                if (textX + characterWidth >= RIGHT_MARGIN) {
-                    textX = LEFT_MARGIN;
-                    textY += characterHeight;
-                    // readjust words after the most recent space (last word)
-                    if (spaceNode.item != null) {
-                        while (spaceNode != currentNode.next) {
-                            Node nextNode = spaceNode.next;
-                            Text nextCharacter = (Text) nextNode.item;
-                            int nextWidth = (int) Math.round(nextCharacter.getLayoutBounds().getWidth());
-                            nextCharacter.setX(textX);
-                            nextCharacter.setY(textY);
-                            // add pointers to each of the first lines
-                            // accounts for word wrapped characters
-                            if (nextCharacter.getX() == LEFT_MARGIN) {
-                                lines.add(nextNode);
-                            }
-                            textX += nextWidth;
-                            spaceNode = spaceNode.next;
-                        }
-                        // reset the last spaceNode
-                        spaceNode = buffer.sentinel_front;
-                    } else {
-                        character.setX(textX);
-                        character.setY(textY);
-                        textX += characterWidth;
-                    }
-                } else {
-                    textX += characterWidth;
-                }
-                currentNode = currentNode.next;
+        // shows the part of the text inside the window
+        public void render() {
+            int top = (int) Math.round(scrollBar.getValue());
+            long start = System.nanoTime();
+            view.render(layout, document.getText(), metrics.getFont(), top, WINDOW_HEIGHT);
+            if (frames != null) {
+                frames.rendered(System.nanoTime() - start);
             }
-            scrollBar.setMax(Math.max(0, textY - WINDOW_HEIGHT));
+            int line = layout.lineAt(top);
+            anchor = layout.lineStart(line);
+            anchorBelow = top - layout.y(line);
         }
 
         public void updateCursor() {
-            Node currentNode = buffer.cursorNode;
-            Text currentCharacter = (Text) currentNode.item;
-            int currentX;
-            int currentY;
-
-            if (buffer.size() == 0 || currentNode.prev == buffer.sentinel_front) {
-                cursorX = LEFT_MARGIN;
-                cursorY = 0;
-
-            } else if (currentNode == buffer.sentinel_back || currentCharacter.getText().equals("\r")) {
-                Node previousNode = currentNode.prev;
-                Text previousCharacter = (Text) previousNode.item;
-                currentX = (int) previousCharacter.getX() + (int) Math.round(previousCharacter.getLayoutBounds().getWidth());
-                currentY = (int) previousCharacter.getY();
-                if (previousCharacter.getText().equals("\r")) {
-                    currentX = LEFT_MARGIN;
-                    currentY += characterHeight;
-                }
-                cursorX = currentX;
-                cursorY = currentY;
-
-            } else {
-                currentX = (int) Math.round(currentCharacter.getX());
-                currentY = (int) Math.round(currentCharacter.getY());
-                cursorX = currentX;
-                cursorY = currentY;
-            }
+            int current_line = layout.lineOf(document.getCursor());
+            cursorX = layout.x(document.getCursor());
+            cursorY = layout.y(current_line);
+            int characterHeight = layout.lineHeight();
 
             cursor.returnRectangle().setX(cursorX);
             cursor.returnRectangle().setY(cursorY);
@@ -545,55 +453,13 @@ public class Editor extends Application {
         }
 
         public void mouseSet(int targetX, int targetY) {
-            int current_line = Math.round(targetY / characterHeight);
+            int y = (int) Math.round(targetY + scrollBar.getValue());
 
             // clicking on white space past the text
-            if (current_line > lines.size() - 1) {
-                buffer.cursorNode = buffer.sentinel_back;
-                updateCursor();
+            if (y >= layout.height()) {
+                document.setCursor(document.size());
             } else {
-                Node cursor_ptr = lines.get(current_line);
-                Text currentText;
-                int currentX;
-
-                Node next_ptr = cursor_ptr.next;
-                Text nextText = (Text) next_ptr.item;
-                int nextX = (int) Math.round(nextText.getX());
-
-                while (nextX != LEFT_MARGIN) {
-                    if (next_ptr == buffer.sentinel_back) {
-                        currentText = (Text) cursor_ptr.item;
-                        currentX = (int) Math.round(currentText.getX());
-
-                        cursor_ptr = cursor_ptr.next;
-                        break;
-                    } else {
-                        currentText = (Text) cursor_ptr.item;
-                        currentX = (int) Math.round(currentText.getX());
-
-                        nextText = (Text) next_ptr.item;
-                        nextX = (int) Math.round(nextText.getX());
-                    }
-                    if (currentX >= targetX) {
-                        Node previousNode = cursor_ptr.prev;
-                        Text previousText = (Text) previousNode.item;
-                        int previousX = (int) Math.round(previousText.getX());
-                        int diff1 = Math.abs(currentX - targetX);
-                        int diff2 = Math.abs(previousX - targetX);
-                        if (diff1 > diff2) {
-                            cursor_ptr = cursor_ptr.prev;
-                        }
-                        break;
-                    } else {
-                        cursor_ptr = cursor_ptr.next;
-                        next_ptr = next_ptr.next;
-                    }
-                }
-                if (nextX != LEFT_MARGIN) {
-                    buffer.cursorNode = cursor_ptr;
-                } else {
-                    buffer.cursorNode = cursor_ptr.prev;
-                }
+                document.setCursor(layout.offsetAt(layout.lineAt(y), targetX));
             }
             updateCursor();
         }
@@ -601,6 +467,7 @@ public class Editor extends Application {
 
     @Override
     public void start(Stage primaryStage) {
+        stage = primaryStage;
         // Create a Node that will be the parent of all things displayed on the screen.
         Group root = new Group();
 
@@ -627,6 +494,15 @@ public class Editor extends Application {
         // assign the right margin based of the usable screen width
         RIGHT_MARGIN = usableScreenWidth - LEFT_MARGIN;
 
+        // To get information about what keys the user is pressing, create an EventHandler.
+        // EventHandler subclasses must override the "handle" function, which will be called
+        // by javafx.
+        EventHandler<KeyEvent> keyEventHandler =
+                new KeyEventHandler(root, WINDOW_WIDTH, WINDOW_HEIGHT);
+        // Register the event handler to be called for all KEY_PRESSED and KEY_TYPED events.
+        scene.setOnKeyTyped(keyEventHandler);
+        scene.setOnKeyPressed(keyEventHandler);
+
         /** When the scroll bar changes position, change the height of the text. */
         scrollBar.valueProperty().addListener(new ChangeListener<Number>() {
             public void changed(
@@ -639,36 +515,29 @@ public class Editor extends Application {
                 // the scroll area, the position will be:
                 //      scroll minimum + (scroll maximum - scroll minimum) / 2
                 textRoot.setLayoutY((int) Math.round(-newValue.doubleValue()));
+                ((KeyEventHandler) keyEventHandler).render();
             }
         });
 
-        // To get information about what keys the user is pressing, create an EventHandler.
-        // EventHandler subclasses must override the "handle" function, which will be called
-        // by javafx.
-        EventHandler<KeyEvent> keyEventHandler =
-                new KeyEventHandler(root, WINDOW_WIDTH, WINDOW_HEIGHT);
-        // Register the event handler to be called for all KEY_PRESSED and KEY_TYPED events.
-        scene.setOnKeyTyped(keyEventHandler);
-        scene.setOnKeyPressed(keyEventHandler);
-
         EventHandler<MouseEvent> mouseEventEventHandler = new MouseClickEventHandler((KeyEventHandler) keyEventHandler);
 
         scene.setOnMouseClicked(mouseEventEventHandler);
 
+        // Dragging the window resizes it many times between two frames, so the listeners only
+        // note the new size, and the timer applies it once, at the next pulse.
+        final AnimationTimer resizer = new AnimationTimer() {
+            @Override public void handle(long now) {
+                stop();
+                ((KeyEventHandler) keyEventHandler).resized();
+            }
+        };
         scene.widthProperty().addListener(new ChangeListener<Number>() {
             @Override public void changed(
                     ObservableValue<? extends Number> observableValue,
                     Number oldScreenWidth,
                     Number newScreenWidth) {
                 WINDOW_WIDTH = newScreenWidth.intValue();
-                int usableScreenWidth =
-                        (int) Math.round(WINDOW_WIDTH - scrollBar.getLayoutBounds().getWidth());
-                scrollBar.setLayoutX(usableScreenWidth);
-
-                // assign the right margin based of the usable screen width
-                RIGHT_MARGIN = usableScreenWidth - LEFT_MARGIN;
-                ((KeyEventHandler) keyEventHandler).reposition(((KeyEventHandler) keyEventHandler).buffer);
-                ((KeyEventHandler) keyEventHandler).updateCursor();
+                resizer.start();
             }
         });
         scene.heightProperty().addListener(new ChangeListener<Number>() {
@@ -677,8 +546,7 @@ public class Editor extends Application {
                     Number oldScreenHeight,
                     Number newScreenHeight) {
                 WINDOW_HEIGHT = newScreenHeight.intValue();
-                scrollBar.setPrefHeight(WINDOW_HEIGHT);
-                ((KeyEventHandler) keyEventHandler).reposition(((KeyEventHandler) keyEventHandler).buffer);
+                resizer.start();
             }
         });
 
@@ -686,7 +554,7 @@ public class Editor extends Application {
         textRoot.getChildren().add(cursor.returnRectangle());
         cursor.makeRectangleColorChange();
 
-        primaryStage.setTitle("Text Editor");
+        primaryStage.setTitle(TITLE);
 
         // This is boilerplate, necessary to setup the window where things are displayed.
         primaryStage.setScene(scene);
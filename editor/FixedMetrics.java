@@ -0,0 +1,24 @@
+package editor;
+
+// GlyphMetrics for a fixed-width font, for laying text out where there is no JavaFX toolkit.
+public class FixedMetrics implements GlyphMetrics {
+    private int advance;
+    private int lineHeight;
+
+    public FixedMetrics(int advance, int lineHeight) {
+        this.advance = advance;
+        this.lineHeight = lineHeight;
+    }
+
+    public int advance(char c) {
+        return advance;
+    }
+
+    public int lineHeight() {
+        return lineHeight;
+    }
+
+    public Object glyphs() {
+        return advance;
+    }
+}
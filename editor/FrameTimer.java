@@ -0,0 +1,56 @@
+package editor;
+
+import javafx.animation.AnimationTimer;
+
+import java.util.Arrays;
+
+// Measures the time between frames, and how much of it went into rendering the text, and
+// prints both every few seconds, so the renderers can be compared (-Deditor.frames=true).
+public class FrameTimer extends AnimationTimer {
+    // frames in each report
+    private static final int FRAMES = 300;
+
+    private String renderer;
+    private long[] frames = new long[FRAMES];
+    private int count;
+    private long last;
+    private long rendering;
+    private int renders;
+
+    public FrameTimer(String renderer) {
+        this.renderer = renderer;
+    }
+
+    // one render of the text took nanos
+    public void rendered(long nanos) {
+        rendering += nanos;
+        renders += 1;
+    }
+
+    @Override
+    public void handle(long now) {
+        if (last != 0) {
+            frames[count] = now - last;
+            count += 1;
+        }
+        last = now;
+        if (count == FRAMES) {
+            report();
+            count = 0;
+            rendering = 0;
+            renders = 0;
+        }
+    }
+
+    private void report() {
+        long[] sorted = frames.clone();
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long frame : sorted) {
+            total += frame;
+        }
+        System.out.printf("%s: frames mean %.1f ms, 95th %.1f ms, worst %.1f ms; %d renders, mean %.2f ms%n",
+                renderer, total / 1e6 / FRAMES, sorted[FRAMES * 95 / 100] / 1e6, sorted[FRAMES - 1] / 1e6,
+                renders, renders == 0 ? 0 : rendering / 1e6 / renders);
+    }
+}
@@ -0,0 +1,162 @@
+package editor;
+
+// A char[] with a gap at the last edit position. Typing fills the gap without allocating;
+// the gap only moves when an edit happens away from it, and the array doubles when full.
+// A snapshot shares the array, which the next edit copies before changing it.
+public class GapBuffer implements TextStore {
+    private char[] chars;
+    private int gapStart;
+    private int gapEnd;
+    private int cursor;
+
+    // the newlines, which are kept with a gap at the same place as the text
+    private LineIndex lines;
+    // true while a snapshot shares chars and lines
+    private boolean shared;
+
+    // Creates an empty GapBuffer
+    public GapBuffer() {
+        this(new char[0]);
+    }
+
+    // Creates a GapBuffer holding a copy of the given text, with the gap at the front
+    public GapBuffer(char[] text) {
+        chars = new char[Math.max(16, text.length * 2)];
+        gapStart = 0;
+        gapEnd = chars.length - text.length;
+        System.arraycopy(text, 0, chars, gapEnd, text.length);
+        cursor = 0;
+        lines = new LineIndex(text);
+    }
+
+    // a GapBuffer over the arrays of a snapshot
+    private GapBuffer(char[] chars, int gapStart, int gapEnd, LineIndex lines) {
+        this.chars = chars;
+        this.gapStart = gapStart;
+        this.gapEnd = gapEnd;
+        this.lines = lines;
+        cursor = 0;
+    }
+
+    public ReadableText snapshot() {
+        shared = true;
+        return new GapBuffer(chars, gapStart, gapEnd, lines);
+    }
+
+    public int size() {
+        return chars.length - gapEnd + gapStart;
+    }
+
+    public char charAt(int offset) {
+        return offset < gapStart ? chars[offset] : chars[offset + gapEnd - gapStart];
+    }
+
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        if (start < gapStart) {
+            int count = Math.min(end, gapStart) - start;
+            System.arraycopy(chars, start, dst, dstBegin, count);
+            dstBegin += count;
+            start += count;
+        }
+        if (start < end) {
+            System.arraycopy(chars, start + gapEnd - gapStart, dst, dstBegin, end - start);
+        }
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(int offset) {
+        cursor = offset;
+    }
+
+    public void add(char c) {
+        unshare();
+        moveGap(cursor);
+        if (gapStart == gapEnd) {
+            grow(1);
+        }
+        lines.inserted(cursor, c);
+        chars[gapStart] = c;
+        gapStart += 1;
+        cursor += 1;
+    }
+
+    public void add(char[] text, int start, int length) {
+        unshare();
+        moveGap(cursor);
+        if (gapEnd - gapStart < length) {
+            grow(length);
+        }
+        lines.inserted(cursor, text, start, length);
+        System.arraycopy(text, start, chars, gapStart, length);
+        gapStart += length;
+        cursor += length;
+    }
+
+    public void remove() {
+        unshare();
+        moveGap(cursor);
+        gapStart -= 1;
+        lines.removed(gapStart, chars[gapStart]);
+        cursor -= 1;
+    }
+
+    public void remove(int count) {
+        unshare();
+        moveGap(cursor);
+        gapStart -= count;
+        lines.removed(gapStart, chars, gapStart, count);
+        cursor -= count;
+    }
+
+    public int lineCount() {
+        return lines.lineCount();
+    }
+
+    public int lineOf(int offset) {
+        return lines.lineOf(offset);
+    }
+
+    public int lineStart(int line) {
+        return lines.lineStart(line);
+    }
+
+    // copies the arrays a snapshot shares, before they are changed
+    private void unshare() {
+        if (shared) {
+            char[] copy = new char[chars.length];
+            System.arraycopy(chars, 0, copy, 0, chars.length);
+            chars = copy;
+            lines = new LineIndex(lines);
+            shared = false;
+        }
+    }
+
+    // moves the gap so that it starts at offset
+    private void moveGap(int offset) {
+        if (offset < gapStart) {
+            int count = gapStart - offset;
+            System.arraycopy(chars, offset, chars, gapEnd - count, count);
+            gapStart -= count;
+            gapEnd -= count;
+        } else if (offset > gapStart) {
+            int count = offset - gapStart;
+            System.arraycopy(chars, gapEnd, chars, gapStart, count);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    // at least doubles the array, and makes room for needed more characters in the gap
+    private void grow(int needed) {
+        int length = Math.max(chars.length * 2, size() + needed);
+        int delta = length - chars.length;
+        char[] bigger = new char[length];
+        System.arraycopy(chars, 0, bigger, 0, gapStart);
+        System.arraycopy(chars, gapEnd, bigger, gapEnd + delta, chars.length - gapEnd);
+        chars = bigger;
+        gapEnd += delta;
+    }
+}
@@ -0,0 +1,74 @@
+package editor;
+
+import javafx.geometry.Bounds;
+import javafx.geometry.VPos;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.HashMap;
+
+/**
+ * The widths of the glyphs of one font at one size, each measured once with a single Text
+ * that is never shown. Widths are kept by char, the way Layout measures the text, in pages
+ * of a primitive array that are allocated on first use.
+ *
+ * The LayoutWorker measures from its thread too, and the pages are not locked: two threads
+ * may each allocate a page and one lose the other's, or see a page before its widths, but a
+ * width is only ever 0 or the one measured, an int is written whole, and a lost width is
+ * measured again the same, so a race costs at most a second measure.
+ */
+public class GlyphCache {
+    private static final HashMap<String, GlyphCache> caches = new HashMap<>();
+    private static final Text measure = new Text();
+
+    private Font font;
+    private int lineHeight;
+    // width + 1 of each measured character, so that 0 means not measured yet
+    private int[][] pages = new int[256][];
+
+    // the cache for a font, which is kept for as long as the editor runs
+    public static synchronized GlyphCache forFont(String fontName, int fontSize) {
+        String key = fontName + " " + fontSize;
+        GlyphCache cache = caches.get(key);
+        if (cache == null) {
+            cache = new GlyphCache(Font.font(fontName, fontSize));
+            caches.put(key, cache);
+        }
+        return cache;
+    }
+
+    private GlyphCache(Font font) {
+        this.font = font;
+        // JavaFX gives every character but a newline the same height, a space included
+        lineHeight = (int) Math.round(measure(font, " ").getHeight());
+    }
+
+    public Font getFont() {
+        return font;
+    }
+
+    public int lineHeight() {
+        return lineHeight;
+    }
+
+    public int advance(char c) {
+        int[] page = pages[c >>> 8];
+        if (page == null) {
+            page = new int[256];
+            pages[c >>> 8] = page;
+        }
+        int width = page[c & 0xff];
+        if (width == 0) {
+            width = (int) Math.round(measure(font, Character.toString(c)).getWidth()) + 1;
+            page[c & 0xff] = width;
+        }
+        return width - 1;
+    }
+
+    private static synchronized Bounds measure(Font font, String glyph) {
+        measure.setTextOrigin(VPos.TOP);
+        measure.setFont(font);
+        measure.setText(glyph);
+        return measure.getLayoutBounds();
+    }
+}
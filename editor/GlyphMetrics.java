@@ -0,0 +1,15 @@
+package editor;
+
+// Measures text for Layout. Widths and heights are whole pixels, because JavaFX draws each
+// character on a pixel boundary.
+public interface GlyphMetrics {
+    // the width of c
+    int advance(char c);
+
+    // the height of one line of text
+    int lineHeight();
+
+    // stands for the widths advance gives, so metrics with equal glyphs measure alike and
+    // what was wrapped with one can be reused for the other
+    Object glyphs();
+}
@@ -0,0 +1,441 @@
+package editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * The undo history of a file, kept in a journal next to it (".name.journal") so that it
+ * outlives the editor and does not have to fit in memory, and so that the edits made since
+ * the file was last saved can be recovered after a crash.
+ *
+ * The journal is mapped into memory and only ever appended to: a record for each undo entry,
+ * which typing extends while it is the last record, and a small record for each undo, redo
+ * and checkpoint. The undo and redo stacks are chains through the records, so the history
+ * costs the heap nothing but the positions of their tops. A checkpoint records the tops when
+ * the text is the same as the file, which is when it is opened and each time it is saved;
+ * the header points at the last checkpoint known to be on disk, with the file's length and
+ * modification time then. Reopening a file that still matches starts from that checkpoint,
+ * and the records after it are the edits that were not saved. Once a save leaves the
+ * journal mostly records that nothing reaches any more, it is written again without them.
+ */
+public class Journal {
+    private static final int MAGIC = 0x4a524e4c;
+    private static final int VERSION = 2;
+    // the journal starts this big, and doubles when full
+    private static final int FIRST_SIZE = 1 << 20;
+
+    // the header: magic, version, then these fields
+    private static final int END = 8;
+    private static final int SAVED = 12;
+    private static final int MAPPED = 16;
+    private static final int SAVED_LENGTH = 24;
+    private static final int SAVED_MODIFIED = 32;
+    private static final int HEADER = 40;
+
+    // The records all start with their kind. An entry then has its offset, the number of
+    // characters, the entry below it on the undo stack and the characters, which for a run of
+    // deletes are in the order they were deleted, so that backspace can extend it. The offset
+    // of a run of deletes is where it ends, which backspace leaves as it is, so extending a
+    // run only changes its number of characters. An undo
+    // has the entry it undid and the undo below it on the redo stack; a checkpoint has the
+    // tops of both stacks; a redo has nothing else.
+    private static final int ADD = 1;
+    private static final int REMOVE = 2;
+    private static final int UNDO = 3;
+    private static final int REDO = 4;
+    private static final int CHECKPOINT = 5;
+    private static final int ENTRY_HEADER = 16;
+
+    // Recovering from a journal makes edits to the text through this
+    public interface Replay {
+        // makes edit, an entry as it was first made
+        void change(Actions edit);
+    }
+
+    private File file;
+    private File journal;
+    private boolean mapped;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int end;
+    // the entry on top of the undo stack and the undo on top of the redo stack, or 0
+    private int undoTop;
+    private int redoTop;
+    // the last record, if it is an entry that may still be extended, or 0
+    private int open;
+    // set if the journal could not be written, after which it is left alone
+    private boolean broken;
+    private char[] single = new char[1];
+
+    // Opens the journal of file, creating it if there is none. mapped says whether the text
+    // of file is the file as it is, or was read with its line endings turned into newlines.
+    public Journal(File file, boolean mapped) throws IOException {
+        file = file.getAbsoluteFile();
+        this.file = file;
+        this.mapped = mapped;
+        journal = new File(file.getParentFile(), "." + file.getName() + ".journal");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(journal, "rw");
+        boolean opened = false;
+        try {
+            channel = randomAccessFile.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(FIRST_SIZE, Math.min(Integer.MAX_VALUE, channel.size())));
+            opened = true;
+        } finally {
+            if (!opened) {
+                randomAccessFile.close();
+            }
+        }
+        end = buffer.getInt(END);
+    }
+
+    // true if the journal holds a checkpoint of the file as it is on disk now
+    public synchronized boolean matches() {
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                && end >= HEADER && end <= buffer.capacity()
+                && buffer.getInt(SAVED) >= HEADER && buffer.getInt(SAVED) < end
+                && (buffer.getInt(MAPPED) == 1) == mapped
+                && buffer.getLong(SAVED_LENGTH) == file.length()
+                && buffer.getLong(SAVED_MODIFIED) == file.lastModified();
+    }
+
+    // Throws away the journal and starts a new one, whose history begins with the text as
+    // it is now, which must be the file as it is on disk.
+    public synchronized void reset() {
+        end = HEADER;
+        undoTop = 0;
+        redoTop = 0;
+        open = 0;
+        broken = false;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(SAVED, 0);
+        buffer.putInt(END, end);
+        saved(checkpoint());
+    }
+
+    /**
+     * Picks up the history from the last checkpoint on disk, which the text must match, and
+     * makes the edits recorded after it again through replay. Returns whether there were
+     * any, which means the text was not saved the last time the file was edited.
+     */
+    public synchronized boolean replay(Replay replay) {
+        int position = buffer.getInt(SAVED);
+        undoTop = buffer.getInt(position + 4);
+        redoTop = buffer.getInt(position + 8);
+        position += 12;
+        boolean changed = false;
+        while (position < end) {
+            int kind = buffer.getInt(position);
+            if (kind == ADD || kind == REMOVE) {
+                int next = position + ENTRY_HEADER + 2 * buffer.getInt(position + 8);
+                if (next > end) {
+                    // the last run was being extended when the editor stopped, and holds the
+                    // characters that made it to the header
+                    buffer.putInt(position + 8, (end - position - ENTRY_HEADER) / 2);
+                    next = position + ENTRY_HEADER + 2 * buffer.getInt(position + 8);
+                }
+                replay.change(read(position));
+                undoTop = position;
+                redoTop = 0;
+                changed = true;
+                position = next;
+            } else if (kind == UNDO) {
+                int entry = buffer.getInt(position + 4);
+                replay.change(read(entry).reverse());
+                undoTop = buffer.getInt(entry + 12);
+                redoTop = position;
+                changed = true;
+                position += 12;
+            } else if (kind == REDO) {
+                int entry = buffer.getInt(redoTop + 4);
+                replay.change(read(entry));
+                undoTop = entry;
+                redoTop = buffer.getInt(redoTop + 8);
+                changed = true;
+                position += 4;
+            } else {
+                undoTop = buffer.getInt(position + 4);
+                redoTop = buffer.getInt(position + 8);
+                position += 12;
+            }
+        }
+        // anything past a record cut short is dropped
+        end = position;
+        buffer.putInt(END, end);
+        return changed;
+    }
+
+    public synchronized boolean canUndo() {
+        return !broken && undoTop != 0;
+    }
+
+    public synchronized boolean canRedo() {
+        return !broken && redoTop != 0;
+    }
+
+    // the entry an undo would undo
+    public synchronized Actions undoEntry() {
+        return read(undoTop);
+    }
+
+    // the entry, as it was first made, that a redo would make again
+    public synchronized Actions redoEntry() {
+        return read(buffer.getInt(redoTop + 4));
+    }
+
+    // records a new entry of chars[start, start + length) added at or removed from offset
+    public synchronized void edit(boolean add, int offset, char[] chars, int start, int length) {
+        if (!ensure(ENTRY_HEADER + 2 * length)) {
+            return;
+        }
+        int position = end;
+        buffer.putInt(position, add ? ADD : REMOVE);
+        buffer.putInt(position + 4, add ? offset : offset + length);
+        buffer.putInt(position + 8, length);
+        buffer.putInt(position + 12, undoTop);
+        for (int i = 0; i < length; i += 1) {
+            buffer.putChar(position + ENTRY_HEADER + 2 * i,
+                    chars[add ? start + i : start + length - 1 - i]);
+        }
+        commit(position + ENTRY_HEADER + 2 * length);
+        undoTop = position;
+        redoTop = 0;
+        open = position;
+    }
+
+    // Adds c to the last entry, the way Actions.extend added it to the run in memory. The
+    // number of characters goes up before the end in the header, so a crash in between
+    // leaves an entry that runs past the end, which replay cuts back to the end.
+    public synchronized void extend(boolean add, int offset, char c) {
+        if (open == 0) {
+            // only happens if the run was not closed at a checkpoint; the history stays right,
+            // if finer than the one in memory
+            single[0] = c;
+            edit(add, offset, single, 0, 1);
+            return;
+        }
+        if (!ensure(2)) {
+            return;
+        }
+        buffer.putChar(end, c);
+        buffer.putInt(open + 8, buffer.getInt(open + 8) + 1);
+        commit(end + 2);
+    }
+
+    // records that the entry on top of the undo stack was undone
+    public synchronized void undone() {
+        if (!ensure(12)) {
+            return;
+        }
+        int position = end;
+        buffer.putInt(position, UNDO);
+        buffer.putInt(position + 4, undoTop);
+        buffer.putInt(position + 8, redoTop);
+        commit(position + 12);
+        undoTop = buffer.getInt(undoTop + 12);
+        redoTop = position;
+        open = 0;
+    }
+
+    // records that the undo on top of the redo stack was redone
+    public synchronized void redone() {
+        if (!ensure(4)) {
+            return;
+        }
+        buffer.putInt(end, REDO);
+        commit(end + 4);
+        undoTop = buffer.getInt(redoTop + 4);
+        redoTop = buffer.getInt(redoTop + 8);
+        open = 0;
+    }
+
+    // Records the tops of the stacks, and returns where, so that saved can mark it as the
+    // text that went to disk. This ends the run being typed.
+    public synchronized int checkpoint() {
+        if (!ensure(12)) {
+            return 0;
+        }
+        int position = end;
+        buffer.putInt(position, CHECKPOINT);
+        buffer.putInt(position + 4, undoTop);
+        buffer.putInt(position + 8, redoTop);
+        commit(position + 12);
+        open = 0;
+        return position;
+    }
+
+    // The text at checkpoint is now what the file holds. Called once the file has been
+    // written, from whichever thread wrote it.
+    public synchronized void saved(int checkpoint) {
+        if (broken || checkpoint == 0) {
+            return;
+        }
+        buffer.putInt(SAVED, checkpoint);
+        buffer.putInt(MAPPED, mapped ? 1 : 0);
+        buffer.putLong(SAVED_LENGTH, file.length());
+        buffer.putLong(SAVED_MODIFIED, file.lastModified());
+        buffer.force();
+        if (checkpoint + 12 == end) {
+            compact();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    // the entry at position, as an Actions with the characters in the order of the text
+    private Actions read(int position) {
+        boolean add = buffer.getInt(position) == ADD;
+        int length = buffer.getInt(position + 8);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i += 1) {
+            chars[add ? i : length - 1 - i] = buffer.getChar(position + ENTRY_HEADER + 2 * i);
+        }
+        int offset = buffer.getInt(position + 4);
+        Actions action = new Actions(add, add ? offset : offset - length, chars, 0, length);
+        action.close();
+        return action;
+    }
+
+    // Rewrites the journal as the entries the stacks still reach and a checkpoint of them,
+    // which is the text on disk, if that is under a quarter of it. The rest are runs that a
+    // new edit took off the redo stack, undos and redos, and older checkpoints. The new
+    // journal is written next to this one and moved over it, so a crash leaves one of them
+    // whole; if it cannot be, this one is kept.
+    private void compact() {
+        int undos = 0;
+        long live = HEADER + 12;
+        for (int entry = undoTop; entry != 0; entry = buffer.getInt(entry + 12)) {
+            undos += 1;
+            live += entrySize(entry);
+        }
+        int redos = 0;
+        for (int undo = redoTop; undo != 0; undo = buffer.getInt(undo + 8)) {
+            redos += 1;
+            live += entrySize(buffer.getInt(undo + 4)) + 12;
+        }
+        if (end < FIRST_SIZE || 4 * live > end) {
+            return;
+        }
+        // the undo stack from the bottom, and the entries of the redo stack from the top
+        int[] entries = new int[undos + redos];
+        int i = undos;
+        for (int entry = undoTop; entry != 0; entry = buffer.getInt(entry + 12)) {
+            i -= 1;
+            entries[i] = entry;
+        }
+        i = undos;
+        for (int undo = redoTop; undo != 0; undo = buffer.getInt(undo + 8)) {
+            entries[i] = buffer.getInt(undo + 4);
+            i += 1;
+        }
+        File temp = new File(journal.getParentFile(), journal.getName() + ".new");
+        FileChannel copyChannel = null;
+        try {
+            copyChannel = new RandomAccessFile(temp, "rw").getChannel();
+            MappedByteBuffer copy = copyChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                    Math.max(FIRST_SIZE, 2 * live));
+            // each entry goes on the one before it, as the redo stack's top went on the undo
+            // stack's top when it was undone
+            int position = HEADER;
+            int[] copied = new int[entries.length];
+            for (i = 0; i < entries.length; i += 1) {
+                copied[i] = position;
+                position = copyEntry(entries[i], copy, position, i == 0 ? 0 : copied[i - 1]);
+            }
+            int copiedRedo = 0;
+            for (i = entries.length - 1; i >= undos; i -= 1) {
+                copy.putInt(position, UNDO);
+                copy.putInt(position + 4, copied[i]);
+                copy.putInt(position + 8, copiedRedo);
+                copiedRedo = position;
+                position += 12;
+            }
+            int copiedUndo = undos == 0 ? 0 : copied[undos - 1];
+            copy.putInt(position, CHECKPOINT);
+            copy.putInt(position + 4, copiedUndo);
+            copy.putInt(position + 8, copiedRedo);
+            copy.putInt(0, MAGIC);
+            copy.putInt(4, VERSION);
+            copy.putInt(END, position + 12);
+            copy.putInt(SAVED, position);
+            copy.putInt(MAPPED, buffer.getInt(MAPPED));
+            copy.putLong(SAVED_LENGTH, buffer.getLong(SAVED_LENGTH));
+            copy.putLong(SAVED_MODIFIED, buffer.getLong(SAVED_MODIFIED));
+            copy.force();
+            Files.move(temp.toPath(), journal.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            channel.close();
+            channel = copyChannel;
+            buffer = copy;
+            end = position + 12;
+            undoTop = copiedUndo;
+            redoTop = copiedRedo;
+            open = 0;
+        } catch (IOException exception) {
+            // the journal as it was still holds the same history
+            if (copyChannel != null) {
+                try {
+                    copyChannel.close();
+                } catch (IOException ignored) {
+                    // nothing more to do with it
+                }
+            }
+            temp.delete();
+        }
+    }
+
+    private int entrySize(int entry) {
+        return ENTRY_HEADER + 2 * buffer.getInt(entry + 8);
+    }
+
+    // copies the entry at position to copy at to, on below, and returns where the copy ends
+    private int copyEntry(int position, MappedByteBuffer copy, int to, int below) {
+        int size = entrySize(position);
+        copy.putInt(to, buffer.getInt(position));
+        copy.putInt(to + 4, buffer.getInt(position + 4));
+        copy.putInt(to + 8, buffer.getInt(position + 8));
+        copy.putInt(to + 12, below);
+        for (int i = ENTRY_HEADER; i < size; i += 2) {
+            copy.putChar(to + i, buffer.getChar(position + i));
+        }
+        return to + size;
+    }
+
+    // the new end goes in the header after the record, so a record cut short is never read
+    private void commit(int end) {
+        this.end = end;
+        buffer.putInt(END, end);
+    }
+
+    // Makes room for bytes more, mapping more of the file if needed. If the journal cannot
+    // grow, it is marked as holding no checkpoint, so it is never replayed, and left alone.
+    private boolean ensure(int bytes) {
+        if (broken) {
+            return false;
+        }
+        long needed = (long) end + bytes;
+        if (needed > buffer.capacity()) {
+            try {
+                long size = Math.max(2L * buffer.capacity(), needed);
+                if (needed > Integer.MAX_VALUE) {
+                    throw new IOException(file + " has too much history to journal");
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        Math.min(Integer.MAX_VALUE, size));
+            } catch (IOException exception) {
+                buffer.putInt(SAVED, 0);
+                broken = true;
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,934 @@
+package editor;
+
+/**
+ * Word-wraps a text into lines and maps between offsets and positions, using only
+ * GlyphMetrics, so it works without JavaFX. Lines are broken greedily after the last space
+ * that fits, or before the character that does not fit when a word fills the whole line.
+ *
+ * The wrapped lines are kept per paragraph (the text between two newlines), together with a
+ * tree of line counts, so a change only re-wraps the paragraphs it is in, from the line it
+ * starts on and only until the line breaks line up with the old ones again, changing the
+ * lines kept in place.
+ *
+ * A new font or width only marks the paragraphs it affects as stale, keeping the number of
+ * lines each had as a guess, and a large insertion, such as opening a file, leaves its
+ * paragraphs stale with a guess from the number of characters in each. A stale paragraph is
+ * wrapped the first time it is asked about, which for most is when it scrolls into view, or
+ * by a LayoutWorker in the background, through a wrapper over a snapshot of the text. Those
+ * asked about go through a ParagraphCache, so going back to a font or width finds the
+ * paragraphs on screen already wrapped. A stale paragraph longer than PARTIAL_LIMIT is only
+ * wrapped as far as the lines asked about, and the rest of it is guessed until it is asked
+ * about too or the LayoutWorker gets to it.
+ */
+public class Layout implements DocumentListener {
+    // an insertion this long or longer is not wrapped at once; its paragraphs become stale
+    private static final int EAGER_LIMIT = 1 << 16;
+    // a stale paragraph this long or longer is only wrapped as far as it is asked about
+    private static final int PARTIAL_LIMIT = 1 << 16;
+
+    private ReadableText text;
+    private GlyphMetrics metrics;
+    private int leftMargin;
+    private int rightMargin;
+
+    // The paragraphs are kept in slots with a gap at the last place paragraphs were inserted
+    // or removed, as in a GapBuffer, so inserting or removing more there only moves the slots
+    // in between. For the paragraph in each slot: the offsets (from the start of the
+    // paragraph) its lines start at, with room to grow, or null if it fits on one line.
+    private int[][] rows;
+    // the number of lines in each slot, none in the gap
+    private int[] counts;
+    // the number of characters in each paragraph, without its newline
+    private int[] lengths;
+    // For each paragraph on one line, the x it ends at, so a new width that it still fits in
+    // does not have to wrap it again; Integer.MAX_VALUE for the others. A stale paragraph,
+    // not wrapped for the current glyphs and width, has minus the number of its first lines
+    // whose starts are known, which is 1 unless it was wrapped partly, and the number of
+    // lines it is taken to have until it is wrapped as its count.
+    private int[] widths;
+    private int gapStart;
+    private int gapEnd;
+    private int paragraphs;
+    // Fenwick tree over the number of lines in each slot
+    private int[] tree;
+    private ParagraphCache cache = new ParagraphCache();
+    // how many times wrapping a stale paragraph changed its number of lines, moving the
+    // lines after it
+    private int shifts;
+    private int staleCount;
+    // changes each time the glyphs or the width do, so lines wrapped elsewhere can be checked
+    // to be wrapped the way this layout wraps now
+    private int generation;
+    // the glyphs the average advance used for guesses was measured for, and the average
+    private Object averageGlyphs;
+    private int averageAdvance;
+
+    // the last characters read from the text
+    private char[] chunk = new char[4096];
+    private int chunkStart;
+    private int chunkEnd;
+
+    // The line starts wrap has found so far, from the line it started at, and the old ones it
+    // may stop at. matched is the index in tail of the one it stopped at. It also stops once
+    // it has found limitCount lines, or one that starts after limitOffset.
+    private int[] scratch = new int[16];
+    private int count;
+    private int[] tail;
+    private int tailFrom;
+    private int tailEnd;
+    private int delta;
+    private int stopAfter;
+    private int matched;
+    private int limitCount = Integer.MAX_VALUE;
+    private int limitOffset = Integer.MAX_VALUE;
+    // the width of the paragraph wrap last wrapped, if it fit on one line
+    private int wrapWidth;
+
+    // The x coordinate of each cursor position on columnsLine, from its start to the last
+    // position on it, so finding a column or an x is a lookup or a binary search. It is
+    // measured the first time the line is asked about, and dropped when the layout changes.
+    private int[] columns = new int[16];
+    private int columnsLine = -1;
+
+    public Layout(ReadableText text, GlyphMetrics metrics, int leftMargin) {
+        this.text = text;
+        this.metrics = metrics;
+        this.leftMargin = leftMargin;
+        allocate(16);
+        gapStart = 1;
+        counts[0] = 1;
+        widths[0] = leftMargin;
+        paragraphs = 1;
+        buildTree();
+    }
+
+    // A layout of snapshot, a snapshot of this layout's text, that wraps paragraphs the way
+    // this one does now, for wrapping them on another thread. It shares this layout's cache.
+    public Layout wrapper(ReadableText snapshot) {
+        Layout wrapper = new Layout(snapshot, metrics, leftMargin);
+        wrapper.rightMargin = rightMargin;
+        wrapper.cache = cache;
+        return wrapper;
+    }
+
+    public void setRightMargin(int rightMargin) {
+        this.rightMargin = rightMargin;
+    }
+
+    public int getRightMargin() {
+        return rightMargin;
+    }
+
+    public GlyphMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getLeftMargin() {
+        return leftMargin;
+    }
+
+    // lays out all of the text again after the glyphs changed, by marking every paragraph
+    // stale
+    public void reflow() {
+        forget();
+        columnsLine = -1;
+        generation += 1;
+        if (paragraphs != text.lineCount()) {
+            // the text was never laid out
+            paragraphs = text.lineCount();
+            allocate(paragraphs + 16);
+            gapStart = paragraphs;
+            staleCount = 0;
+            int start = 0;
+            for (int p = 0; p < paragraphs; p += 1) {
+                int end = p + 1 < paragraphs ? text.lineStart(p + 1) - 1 : text.size();
+                lengths[p] = end - start;
+                widths[p] = -1;
+                counts[p] = guessLines(end - start);
+                staleCount += 1;
+                start = end + 1;
+            }
+            buildTree();
+            return;
+        }
+        for (int p = 0; p < paragraphs; p += 1) {
+            markStale(slot(p));
+        }
+    }
+
+    // Lays the text out again for a new right margin with the same glyphs. A paragraph that
+    // fits on one line at the new margin is already laid out; only the others become stale.
+    public void resize(int rightMargin) {
+        forget();
+        columnsLine = -1;
+        generation += 1;
+        this.rightMargin = rightMargin;
+        for (int p = 0; p < paragraphs; p += 1) {
+            int s = slot(p);
+            if (widths[s] >= rightMargin || widths[s] < 0) {
+                markStale(s);
+            }
+        }
+    }
+
+    // marks the paragraph in slot s stale, keeping its number of lines as the guess, and
+    // forgets the lines of one that was wrapped partly
+    private void markStale(int s) {
+        if (widths[s] >= 0) {
+            staleCount += 1;
+        }
+        widths[s] = -1;
+        rows[s] = null;
+    }
+
+    // Marks the new paragraph in slot s stale, guessed to take as many lines as its
+    // characters would at the average width of a letter.
+    private void guess(int s) {
+        widths[s] = -1;
+        rows[s] = null;
+        setCount(s, guessLines(lengths[s]));
+        staleCount += 1;
+    }
+
+    private int guessLines(int length) {
+        int lineWidth = Math.max(1, rightMargin - leftMargin);
+        Object glyphs = metrics.glyphs();
+        if (!glyphs.equals(averageGlyphs)) {
+            int sum = metrics.advance(' ');
+            for (char c = 'a'; c <= 'z'; c += 1) {
+                sum += metrics.advance(c);
+            }
+            averageAdvance = Math.max(1, sum / 27);
+            averageGlyphs = glyphs;
+        }
+        long lines = ((long) length * averageAdvance + lineWidth - 1) / lineWidth;
+        return (int) Math.max(1, Math.min(length, lines));
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    public boolean hasStale() {
+        return staleCount != 0;
+    }
+
+    // the first stale paragraph at or after paragraph, or -1
+    public int nextStale(int paragraph) {
+        for (int p = paragraph; p < paragraphs; p += 1) {
+            if (widths[slot(p)] < 0) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    // wraps the stale paragraphs that lines first to last are in, before they are shown
+    public void prepare(int first, int last) {
+        int line = Math.max(0, first);
+        while (line <= last && line < lineCount()) {
+            int paragraph = paragraphOf(line);
+            int s = slot(paragraph);
+            // the lines of it up to last, and the start of the next, which ends last
+            int lines = Math.min(last, lineCount() - 1) - linesBefore(paragraph) + 2;
+            if (widths[s] < 0 && -widths[s] < lines) {
+                ensure(paragraph, lines, Integer.MAX_VALUE);
+                continue;
+            }
+            line = linesBefore(paragraph + 1);
+        }
+    }
+
+    // Counts the times wrapping a stale paragraph moved the lines after it, so whatever was
+    // drawn for a line number can be checked against it.
+    public int getShifts() {
+        return shifts;
+    }
+
+    // Wraps paragraph if it is stale, from the cache if it was wrapped the same way before.
+    // One longer than PARTIAL_LIMIT is only wrapped until the starts of its first lines lines
+    // are known, and that of a line after offset.
+    private void ensure(int paragraph, int lines, int offset) {
+        int s = slot(paragraph);
+        if (widths[s] >= 0) {
+            return;
+        }
+        if (lengths[s] >= PARTIAL_LIMIT) {
+            extend(s, text.lineStart(paragraph), lines, offset);
+            return;
+        }
+        wrapped(paragraph, wrapParagraph(paragraph));
+    }
+
+    // wraps more of the stale paragraph in slot s, which begins at start, from the last line
+    // whose start is known
+    private void extend(int s, int start, int lines, int offset) {
+        int known = -widths[s];
+        limitCount = lines - known + 1;
+        limitOffset = offset;
+        int end = wrap(start, rowStart(s, known - 1), null, 0, 0, 0, 0);
+        limitCount = Integer.MAX_VALUE;
+        limitOffset = Integer.MAX_VALUE;
+        known = patch(s, known - 1, null, -1, 0, 0);
+        int guess = known;
+        if (end == -1) {
+            widths[s] = wrapWidth;
+            staleCount -= 1;
+        } else {
+            widths[s] = -known;
+            guess += guessLines(lengths[s] - rowStart(s, known - 1)) - 1;
+        }
+        if (guess != counts[s]) {
+            setCount(s, guess);
+            columnsLine = -1;
+            shifts += 1;
+        }
+    }
+
+    // Wraps paragraph of the text, stale or not, without taking the lines. Paragraphs short
+    // enough to be wrapped whole are looked up in the cache first and kept in it after.
+    public ParagraphCache.Wrapped wrapParagraph(int paragraph) {
+        int start = text.lineStart(paragraph);
+        int end = paragraph + 1 < text.lineCount() ? text.lineStart(paragraph + 1) - 1
+                : text.size();
+        if (end - start >= PARTIAL_LIMIT) {
+            return measure(start);
+        }
+        // FNV-1a over the characters
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i += 1) {
+            hash = (hash ^ read(i)) * 0x100000001b3L;
+        }
+        Object glyphs = metrics.glyphs();
+        ParagraphCache.Wrapped wrapped = cache.get(hash, end - start, glyphs, leftMargin,
+                rightMargin);
+        if (wrapped == null) {
+            wrapped = measure(start);
+            cache.put(hash, end - start, glyphs, leftMargin, rightMargin, wrapped.rows,
+                    wrapped.width);
+        }
+        return wrapped;
+    }
+
+    // wraps the paragraph that begins at start
+    private ParagraphCache.Wrapped measure(int start) {
+        wrap(start, 0, null, 0, 0, 0, 0);
+        int[] starts = null;
+        if (count > 1) {
+            starts = new int[count];
+            System.arraycopy(scratch, 0, starts, 0, count);
+        }
+        return new ParagraphCache.Wrapped(starts, wrapWidth);
+    }
+
+    // Takes the lines of paragraph, if it is still stale, from wrapParagraph on this layout or
+    // on a wrapper of it made since the text and the generation last changed. They are
+    // copied, since the layout changes its lines in place.
+    public void wrapped(int paragraph, ParagraphCache.Wrapped wrapped) {
+        int s = slot(paragraph);
+        if (widths[s] >= 0) {
+            return;
+        }
+        rows[s] = wrapped.rows == null ? null : wrapped.rows.clone();
+        widths[s] = wrapped.width;
+        staleCount -= 1;
+        int lines = wrapped.rows == null ? 1 : wrapped.rows.length;
+        if (lines != counts[s]) {
+            setCount(s, lines);
+            columnsLine = -1;
+            shifts += 1;
+        }
+    }
+
+    // re-wraps only the paragraphs touched by a change to the text
+    public void changed(int offset, int removed, int inserted) {
+        forget();
+        columnsLine = -1;
+        int first = text.lineOf(offset);
+        int start = text.lineStart(first);
+        int newSpan = text.lineOf(offset + inserted) - first + 1;
+        int oldSpan = newSpan - (text.lineCount() - paragraphs);
+        int edit = offset - start;
+
+        if (oldSpan == 1 && newSpan == 1) {
+            int s = slot(first);
+            lengths[s] += inserted - removed;
+            if (widths[s] < 0 && lengths[s] >= PARTIAL_LIMIT) {
+                // keep it stale, knowing only the lines before the edit
+                int known = Math.max(0, rowAt(rows[s], -widths[s], edit - 1) - 1) + 1;
+                widths[s] = -known;
+                setCount(s, known - 1 + guessLines(lengths[s] - rowStart(s, known - 1)));
+                return;
+            }
+            if (widths[s] < 0) {
+                wrap(start, 0, null, 0, 0, 0, 0);
+                setCount(s, patch(s, 0, null, -1, 0, 0));
+                staleCount -= 1;
+            } else {
+                rewrap(s, start, edit, removed, inserted);
+            }
+            widths[s] = wrapWidth;
+            return;
+        }
+
+        // the paragraphs the change begins and ends in, whose lines before and after it stay
+        int s = slot(first);
+        int[] head = rows[s];
+        int headCount = counts[s];
+        boolean headStale = widths[s] < 0;
+        s = slot(first + oldSpan - 1);
+        int[] old = rows[s];
+        int oldCount = counts[s];
+        boolean oldStale = widths[s] < 0;
+        int oldLength = lengths[s];
+
+        // take the old paragraphs out into the gap, and the new ones in from it
+        moveGap(first);
+        for (int k = 0; k < oldSpan; k += 1) {
+            if (widths[gapEnd] < 0) {
+                staleCount -= 1;
+            }
+            setCount(gapEnd, 0);
+            rows[gapEnd] = null;
+            gapEnd += 1;
+        }
+        reserve(newSpan);
+        int paragraphStart = start;
+        for (int p = first; p < first + newSpan; p += 1) {
+            int end = p + 1 < text.lineCount() ? text.lineStart(p + 1) - 1 : text.size();
+            lengths[gapStart] = end - paragraphStart;
+            widths[gapStart] = -1;
+            gapStart += 1;
+            paragraphStart = end + 1;
+        }
+        paragraphs += newSpan - oldSpan;
+
+        boolean eager = inserted < EAGER_LIMIT;
+        int last = first + newSpan - 1;
+        int end = offset + inserted;
+        // the row of the first paragraph to wrap from, as in rewrap, if it was wrapped
+        int row = headStale ? 0 : Math.max(0, rowAt(head, headCount, edit - 1) - 1);
+        int from = row == 0 ? 0 : head[row];
+        if (newSpan == 1) {
+            // paragraphs joined: keep the head of the first and line up with the old last
+            s = slot(first);
+            if (!eager || headStale || oldStale) {
+                guess(s);
+            } else {
+                int moved = lengths[s] - oldLength;
+                int match = wrap(start, from, old, 0, oldCount, moved, end - start);
+                rows[s] = head;
+                setCount(s, patch(s, row, old, match, oldCount, moved));
+                widths[s] = wrapWidth;
+            }
+            return;
+        }
+        // The last paragraph goes first, since with a paragraph split in two it lines up
+        // with the lines the first one then keeps and overwrites.
+        s = slot(last);
+        if (!eager || oldStale) {
+            guess(s);
+        } else {
+            int lastStart = text.lineStart(last);
+            int moved = lengths[s] - oldLength;
+            int match = wrap(lastStart, 0, old, 0, oldCount, moved, end - lastStart);
+            setCount(s, patch(s, 0, old, match, oldCount, moved));
+            widths[s] = wrapWidth;
+        }
+        for (int p = first + 1; p < last; p += 1) {
+            s = slot(p);
+            if (!eager) {
+                guess(s);
+            } else {
+                wrap(text.lineStart(p), 0, null, 0, 0, 0, 0);
+                setCount(s, patch(s, 0, null, -1, 0, 0));
+                widths[s] = wrapWidth;
+            }
+        }
+        s = slot(first);
+        if (!eager || headStale) {
+            guess(s);
+        } else {
+            wrap(start, from, null, 0, 0, 0, 0);
+            rows[s] = head;
+            setCount(s, patch(s, row, null, -1, 0, 0));
+            widths[s] = wrapWidth;
+        }
+    }
+
+    // wraps the paragraph in slot s again after an edit inside it, keeping the lines before
+    // the edit and those after it that line up again
+    private void rewrap(int s, int start, int edit, int removed, int inserted) {
+        int[] old = rows[s];
+        int lines = counts[s];
+        // A line start can depend on the character that begins the next line, and deleting
+        // can pull a word back onto an earlier line, so start a line before the last line
+        // that begins before the edit.
+        int row = Math.max(0, rowAt(old, lines, edit - 1) - 1);
+        int resume = row + 1;
+        while (resume < lines && old[resume] < edit + removed) {
+            resume += 1;
+        }
+        int match = wrap(start, row == 0 ? 0 : old[row], old, resume, lines,
+                inserted - removed, edit + inserted);
+        setCount(s, patch(s, row, old, match, lines, inserted - removed));
+    }
+
+    /**
+     * Makes the lines of the paragraph in slot s its first keep lines, then the ones wrap
+     * found, then tail[match...tailEnd) moved by delta if match is not -1, and returns how
+     * many that is. tail may be the slot's own rows, which are changed in place and only
+     * grown when they run out of room.
+     */
+    private int patch(int s, int keep, int[] tail, int match, int tailEnd, int delta) {
+        int tailCount = match < 0 ? 0 : tailEnd - match;
+        int total = keep + count + tailCount;
+        int to = keep + count;
+        int[] target = rows[s];
+        if (total == 1) {
+            rows[s] = null;
+            return 1;
+        }
+        if (target == null || target.length < total) {
+            int[] bigger = new int[Math.max(total, target == null ? 0 : target.length * 3 / 2)];
+            if (keep > 0) {
+                System.arraycopy(target, 0, bigger, 0, keep);
+            }
+            for (int k = 0; k < tailCount; k += 1) {
+                bigger[to + k] = tail[match + k] + delta;
+            }
+            target = bigger;
+        } else if (to > match) {
+            // the tail moves later within the same rows, so go from its end
+            for (int k = tailCount - 1; k >= 0; k -= 1) {
+                target[to + k] = tail[match + k] + delta;
+            }
+        } else {
+            for (int k = 0; k < tailCount; k += 1) {
+                target[to + k] = tail[match + k] + delta;
+            }
+        }
+        System.arraycopy(scratch, 0, target, keep, count);
+        rows[s] = target;
+        return total;
+    }
+
+    /**
+     * Wraps the paragraph beginning at start from its line that starts at from, and puts the
+     * starts of the lines it finds, from that one on, in scratch. Once a line starts at or
+     * after stopAfter at the same place as one of tail[tailFrom...tailEnd) moved by delta,
+     * it stops and returns the index of that one in tail, as the lines from there on are
+     * the same as before; otherwise it returns -1 at the end of the paragraph, or -2 once it
+     * reaches the limits.
+     */
+    private int wrap(int start, int from, int[] tail, int tailFrom, int tailEnd, int delta,
+                     int stopAfter) {
+        scratch[0] = from;
+        count = 1;
+        this.tail = tail;
+        this.tailFrom = tailFrom;
+        this.tailEnd = tailEnd;
+        this.delta = delta;
+        this.stopAfter = stopAfter;
+        wrapWidth = Integer.MAX_VALUE;
+
+        int lineStart = start + from;
+        int x = leftMargin;
+        // where the line can be broken, after the last space on it, and the width since then
+        int breakAt = -1;
+        int wordWidth = 0;
+        int size = text.size();
+        int i = lineStart;
+
+        while (i < size) {
+            char c = read(i);
+            if (c == '\n') {
+                break;
+            }
+            int width = metrics.advance(c);
+
+            // check for word wrapping
+            if (x + width >= rightMargin && i > lineStart) {
+                if (c == ' ') {
+                    // a space may hang past the margin; the next line starts after it
+                    if (startLine(i + 1 - start)) {
+                        return matched;
+                    }
+                    lineStart = i + 1;
+                    x = leftMargin;
+                    breakAt = -1;
+                    wordWidth = 0;
+                    i += 1;
+                    continue;
+                }
+                if (breakAt > lineStart) {
+                    // move the last word down to the next line
+                    if (startLine(breakAt - start)) {
+                        return matched;
+                    }
+                    lineStart = breakAt;
+                    x = leftMargin + wordWidth;
+                }
+                // break the word itself if it is too long for a line
+                if (x + width >= rightMargin && i > lineStart) {
+                    if (startLine(i - start)) {
+                        return matched;
+                    }
+                    lineStart = i;
+                    x = leftMargin;
+                    wordWidth = 0;
+                }
+                breakAt = -1;
+            }
+
+            x += width;
+            if (c == ' ') {
+                breakAt = i + 1;
+                wordWidth = 0;
+            } else {
+                wordWidth += width;
+            }
+            i += 1;
+        }
+        if (count == 1 && from == 0) {
+            wrapWidth = x;
+        }
+        tail = null;
+        return -1;
+    }
+
+    // adds a line starting at offset in the paragraph, or returns true if the lines from
+    // there on are the same as the tail's, setting matched
+    private boolean startLine(int offset) {
+        if (tail != null && offset >= stopAfter) {
+            int match = find(tail, tailFrom, tailEnd, offset - delta);
+            if (match != -1) {
+                matched = match;
+                tail = null;
+                return true;
+            }
+        }
+        ensureScratch(count + 1);
+        scratch[count] = offset;
+        count += 1;
+        if (count >= limitCount || offset > limitOffset) {
+            matched = -2;
+            tail = null;
+            return true;
+        }
+        return false;
+    }
+
+    private void ensureScratch(int length) {
+        if (length > scratch.length) {
+            int[] bigger = new int[Math.max(length, scratch.length * 2)];
+            System.arraycopy(scratch, 0, bigger, 0, scratch.length);
+            scratch = bigger;
+        }
+    }
+
+    // index of key in sorted[from...to), or -1
+    private static int find(int[] sorted, int from, int to, int key) {
+        int low = from;
+        int high = to - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (sorted[mid] < key) {
+                low = mid + 1;
+            } else if (sorted[mid] > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // the last of the first count lines of a paragraph that starts at or before offset
+    private static int rowAt(int[] starts, int count, int offset) {
+        if (starts == null) {
+            return 0;
+        }
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // the slot paragraph is in; the paragraph count gives the end of the slots
+    private int slot(int paragraph) {
+        return paragraph < gapStart ? paragraph : paragraph + gapEnd - gapStart;
+    }
+
+    // the offset line row of the paragraph in slot s starts at, from its start
+    private int rowStart(int s, int row) {
+        return row == 0 ? 0 : rows[s][row];
+    }
+
+    private void allocate(int capacity) {
+        rows = new int[capacity][];
+        counts = new int[capacity];
+        lengths = new int[capacity];
+        widths = new int[capacity];
+        gapEnd = capacity;
+    }
+
+    // moves the gap to just before paragraph, carrying the slots in between across it
+    private void moveGap(int paragraph) {
+        if (gapStart == gapEnd) {
+            gapStart = slot(paragraph);
+            gapEnd = gapStart;
+            return;
+        }
+        while (gapStart > paragraph) {
+            gapStart -= 1;
+            gapEnd -= 1;
+            move(gapStart, gapEnd);
+        }
+        while (gapStart < paragraph) {
+            move(gapEnd, gapStart);
+            gapStart += 1;
+            gapEnd += 1;
+        }
+    }
+
+    private void move(int from, int to) {
+        rows[to] = rows[from];
+        rows[from] = null;
+        lengths[to] = lengths[from];
+        widths[to] = widths[from];
+        int lines = counts[from];
+        setCount(from, 0);
+        setCount(to, lines);
+    }
+
+    // makes the gap hold at least room slots, doubling the slots if it does not
+    private void reserve(int room) {
+        if (gapEnd - gapStart >= room) {
+            return;
+        }
+        int[][] oldRows = rows;
+        int[] oldCounts = counts;
+        int[] oldLengths = lengths;
+        int[] oldWidths = widths;
+        int after = oldRows.length - gapEnd;
+        int from = gapEnd;
+        allocate(Math.max(oldRows.length * 2, oldRows.length + room));
+        gapEnd = rows.length - after;
+        System.arraycopy(oldRows, 0, rows, 0, gapStart);
+        System.arraycopy(oldRows, from, rows, gapEnd, after);
+        System.arraycopy(oldCounts, 0, counts, 0, gapStart);
+        System.arraycopy(oldCounts, from, counts, gapEnd, after);
+        System.arraycopy(oldLengths, 0, lengths, 0, gapStart);
+        System.arraycopy(oldLengths, from, lengths, gapEnd, after);
+        System.arraycopy(oldWidths, 0, widths, 0, gapStart);
+        System.arraycopy(oldWidths, from, widths, gapEnd, after);
+        buildTree();
+    }
+
+    private void buildTree() {
+        int slots = counts.length;
+        tree = new int[slots + 1];
+        for (int s = 1; s <= slots; s += 1) {
+            tree[s] += counts[s - 1];
+            int parent = s + (s & -s);
+            if (parent <= slots) {
+                tree[parent] += tree[s];
+            }
+        }
+    }
+
+    // sets the number of lines in slot s, in the tree too
+    private void setCount(int s, int lines) {
+        int delta = lines - counts[s];
+        counts[s] = lines;
+        if (delta != 0) {
+            for (int i = s + 1; i <= counts.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+    }
+
+    // the number of lines in the paragraphs before paragraph
+    private int linesBefore(int paragraph) {
+        int sum = 0;
+        for (int i = slot(paragraph); i > 0; i -= i & -i) {
+            sum += tree[i];
+        }
+        return sum;
+    }
+
+    // The paragraph that line is in, wrapped as far as the start of the line after it.
+    // Wrapping can move line into a later paragraph, or past the last line, in which case
+    // it is the last paragraph.
+    private int wrappedParagraphOf(int line) {
+        while (true) {
+            int paragraph = Math.min(paragraphs - 1, paragraphOf(line));
+            int s = slot(paragraph);
+            int lines = Math.min(line - linesBefore(paragraph), counts[s] - 1) + 2;
+            if (widths[s] >= 0 || -widths[s] >= lines) {
+                return paragraph;
+            }
+            ensure(paragraph, lines, Integer.MAX_VALUE);
+        }
+    }
+
+    // the paragraph that line is in; the slots in the gap have no lines, so it is never one
+    private int paragraphOf(int line) {
+        int s = 0;
+        int step = Integer.highestOneBit(counts.length);
+        while (step != 0) {
+            int next = s + step;
+            if (next <= counts.length && tree[next] <= line) {
+                s = next;
+                line -= tree[next];
+            }
+            step >>= 1;
+        }
+        return s < gapStart ? s : s - (gapEnd - gapStart);
+    }
+
+    private char read(int offset) {
+        if (offset < chunkStart || offset >= chunkEnd) {
+            chunkStart = offset;
+            chunkEnd = Math.min(text.size(), offset + chunk.length);
+            text.getChars(chunkStart, chunkEnd, chunk, 0);
+        }
+        return chunk[offset - chunkStart];
+    }
+
+    // drops the characters read before the text last changed
+    private void forget() {
+        chunkStart = 0;
+        chunkEnd = 0;
+    }
+
+    public int lineCount() {
+        return linesBefore(paragraphs);
+    }
+
+    public int lineHeight() {
+        return metrics.lineHeight();
+    }
+
+    // the height of all of the lines together
+    public int height() {
+        return lineCount() * metrics.lineHeight();
+    }
+
+    public int lineStart(int line) {
+        int paragraph = wrappedParagraphOf(line);
+        int s = slot(paragraph);
+        int row = Math.min(line - linesBefore(paragraph), counts[s] - 1);
+        return text.lineStart(paragraph) + rowStart(s, row);
+    }
+
+    // the offset just past the last position the cursor can take on line
+    public int lineEnd(int line) {
+        int paragraph = wrappedParagraphOf(line);
+        int s = slot(paragraph);
+        int row = Math.min(line - linesBefore(paragraph), counts[s] - 1);
+        if (row + 1 < counts[s]) {
+            return text.lineStart(paragraph) + rows[s][row + 1];
+        } else if (paragraph == paragraphs - 1) {
+            return text.size() + 1;
+        }
+        return text.lineStart(paragraph + 1);
+    }
+
+    // The last position on line that the cursor is shown on line at, where End puts it: before
+    // the newline or the space the line wraps after, before the last character of a line
+    // broken inside a word, since its end is where the next line starts, and at the end of
+    // the text on the last line.
+    public int lastPosition(int line) {
+        return Math.min(text.size(), lineEnd(line) - 1);
+    }
+
+    // the line offset is shown on; an offset where a line wraps belongs to the later line
+    public int lineOf(int offset) {
+        int paragraph = text.lineOf(offset);
+        int s = slot(paragraph);
+        int column = offset - text.lineStart(paragraph);
+        if (widths[s] < 0 && rowStart(s, -widths[s] - 1) <= column) {
+            // as far as a line that starts after offset
+            ensure(paragraph, Integer.MAX_VALUE, column);
+        }
+        int row = rowAt(rows[s], widths[s] < 0 ? -widths[s] : counts[s], column);
+        return linesBefore(paragraph) + row;
+    }
+
+    // the x coordinate of the cursor at offset
+    public int x(int offset) {
+        int line = lineOf(offset);
+        return columns(line)[offset - lineStart(line)];
+    }
+
+    public int y(int line) {
+        return line * metrics.lineHeight();
+    }
+
+    // the line at y, or the first or last line if y is above or below the text
+    public int lineAt(int y) {
+        return Math.max(0, Math.min(lineCount() - 1, y / metrics.lineHeight()));
+    }
+
+    // the cursor position on line closest to x; ties go to the later position
+    public int offsetAt(int line, int x) {
+        int[] xs = columns(line);
+        int count = lineEnd(line) - lineStart(line);
+        // the positions either side of x
+        int after = upperBound(xs, count, x);
+        int before = after - 1;
+        int column;
+        if (after < count && (before < 0 || xs[after] - x <= x - xs[before])) {
+            // past any zero-width characters, which share the same x
+            column = upperBound(xs, count, xs[after]) - 1;
+        } else {
+            column = before;
+        }
+        return lineStart(line) + column;
+    }
+
+    // index of the first of the count sorted xs that is greater than key
+    private static int upperBound(int[] xs, int count, int key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (xs[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // the x coordinates of the cursor positions on line, measured if line is not the last
+    // line asked about
+    private int[] columns(int line) {
+        if (line != columnsLine) {
+            forget();
+            int start = lineStart(line);
+            int count = lineEnd(line) - start;
+            if (count > columns.length) {
+                columns = new int[Math.max(count, columns.length * 2)];
+            }
+            int x = leftMargin;
+            columns[0] = x;
+            for (int i = 1; i < count; i += 1) {
+                x += metrics.advance(read(start + i - 1));
+                columns[i] = x;
+            }
+            columnsLine = line;
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,175 @@
+package editor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps the stale paragraphs of the layout the editor shows on a background thread. After a
+ * file is opened, or the width or the font changes, the layout only wraps what is on screen;
+ * the paragraphs off screen have guessed heights, which this turns into real ones without
+ * holding up the editor.
+ *
+ * The work goes in batches. A batch picks the next stale paragraphs on the thread that edits
+ * the document, wraps them on the worker through a wrapper over a snapshot of the text, and
+ * hands the lines back to that thread. They are taken only if the document is still at the
+ * version of the snapshot and the layout still wraps the same way; otherwise they are thrown
+ * away and the next batch picks the paragraphs again. Each batch that is taken is followed
+ * by refined, so the editor can show the new heights.
+ *
+ * A snapshot is taken once for each version of the document and kept for the batches after
+ * it. Taking one can cost the next edit a copy of the whole text, in a gap buffer, or cost a
+ * copy itself, in a linked buffer, so while the document is being edited the batches wait
+ * until it has been left alone for a moment instead of taking a new one.
+ */
+public class LayoutWorker implements DocumentListener {
+    // the most paragraphs a batch picks, and the characters after which it stops wrapping
+    private static final int BATCH_PARAGRAPHS = 4096;
+    private static final int BATCH_CHARS = 1 << 20;
+    // how long the document has to go unchanged before a new snapshot is taken
+    private static final long QUIET_MILLIS = 250;
+
+    private Document document;
+    private Layout layout;
+    private Executor ui;
+    private ExecutorService worker;
+    private Runnable refined;
+    // whether a batch is on its way, which only the ui thread changes
+    private boolean running;
+    // where the next batch starts looking for stale paragraphs
+    private int next;
+    // the snapshot the batches read, and the version of the document it was taken at
+    private ReadableText snapshot;
+    private long snapshotVersion;
+    // when the document last changed, from System.nanoTime
+    private long changedAt;
+
+    // layout is the one shown for document; ui must run tasks on the thread that edits it
+    public LayoutWorker(Document document, Layout layout, Executor ui, Runnable refined) {
+        this.document = document;
+        this.layout = layout;
+        this.ui = ui;
+        this.refined = refined;
+        worker = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "Layout");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // lays the document out again at rightMargin after the glyphs changed, and runs done once
+    // the layout shows it
+    public void reflow(int rightMargin, Runnable done) {
+        layout.setRightMargin(rightMargin);
+        layout.reflow();
+        done.run();
+        refine(0);
+    }
+
+    // lays the document out again at a new rightMargin with the same glyphs, keeping the
+    // paragraphs that still fit on one line, and runs done once the layout shows it
+    public void resize(int rightMargin, Runnable done) {
+        layout.resize(rightMargin);
+        done.run();
+        refine(0);
+    }
+
+    // a large insertion leaves its paragraphs stale
+    public void changed(int offset, int removed, int inserted) {
+        changedAt = System.nanoTime();
+        refine(next);
+    }
+
+    // makes the next batch start at paragraph, and starts one if none is on its way
+    private void refine(int paragraph) {
+        next = paragraph;
+        if (!running && layout.hasStale()) {
+            running = true;
+            batch();
+        }
+    }
+
+    private void batch() {
+        int first = layout.nextStale(next);
+        if (first == -1) {
+            first = layout.nextStale(0);
+        }
+        if (first == -1) {
+            running = false;
+            snapshot = null;
+            return;
+        }
+        final long version = document.getVersion();
+        if (snapshot == null || snapshotVersion != version) {
+            long quiet = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - changedAt);
+            if (quiet < QUIET_MILLIS) {
+                later(QUIET_MILLIS - quiet);
+                return;
+            }
+            snapshot = document.getText().snapshot();
+            snapshotVersion = version;
+        }
+        final int[] paragraphs = new int[BATCH_PARAGRAPHS];
+        int count = 0;
+        for (int p = first; p != -1 && count < paragraphs.length; p = layout.nextStale(p + 1)) {
+            paragraphs[count] = p;
+            count += 1;
+        }
+        final int picked = count;
+        final ReadableText snapshot = this.snapshot;
+        final Layout wrapper = layout.wrapper(snapshot);
+        final int generation = layout.getGeneration();
+        worker.execute(new Runnable() {
+            public void run() {
+                final ParagraphCache.Wrapped[] wrapped = new ParagraphCache.Wrapped[picked];
+                int done = 0;
+                long chars = 0;
+                while (done < picked && chars < BATCH_CHARS) {
+                    int p = paragraphs[done];
+                    wrapped[done] = wrapper.wrapParagraph(p);
+                    int end = p + 1 < snapshot.lineCount() ? snapshot.lineStart(p + 1) : snapshot.size();
+                    chars += end - snapshot.lineStart(p);
+                    done += 1;
+                }
+                final int count = done;
+                ui.execute(new Runnable() {
+                    public void run() {
+                        if (document.getVersion() == version
+                                && layout.getGeneration() == generation) {
+                            for (int i = 0; i < count; i += 1) {
+                                layout.wrapped(paragraphs[i], wrapped[i]);
+                            }
+                            next = paragraphs[count - 1] + 1;
+                            refined.run();
+                        }
+                        batch();
+                    }
+                });
+            }
+        });
+    }
+
+    // runs the next batch after millis, from the worker so the ui thread is not held up
+    private void later(final long millis) {
+        worker.execute(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException exception) {
+                    Thread.currentThread().interrupt();
+                }
+                ui.execute(new Runnable() {
+                    public void run() {
+                        batch();
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,216 @@
+package editor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * The offsets of the newlines in a text, kept in one sorted int array with a gap at the last
+ * edit, the way GapBuffer keeps its characters. The entries before the gap are offsets and
+ * the entries after it are offsets minus the size of the text, so an edit only changes the
+ * entries between it and the last edit, and typing in one place changes none.
+ *
+ * The newlines of a large text are first found in parallel, in chunks scanned by the common
+ * fork-join pool at the same time.
+ */
+public class LineIndex {
+    // characters one task scans for newlines
+    private static final int CHUNK = 1 << 20;
+
+    private int[] lines;
+    private int before;
+    private int after;
+    private int size;
+
+    // Something whose newlines can be found by several threads at once
+    public interface Scannable {
+        boolean isNewline(int offset);
+    }
+
+    // Creates an index of an empty text
+    public LineIndex() {
+        this(new char[0]);
+    }
+
+    // Creates an index of text, with the gap at the end
+    public LineIndex(final char[] text) {
+        int[] found = find(new Scannable() {
+            public boolean isNewline(int offset) {
+                return text[offset] == '\n';
+            }
+        }, 0, text.length);
+        lines = new int[Math.max(16, found.length * 2)];
+        System.arraycopy(found, 0, lines, 0, found.length);
+        before = found.length;
+        after = 0;
+        size = text.length;
+    }
+
+    // Creates a copy of other, which the copy's edits do not change
+    public LineIndex(LineIndex other) {
+        lines = new int[other.lines.length];
+        System.arraycopy(other.lines, 0, lines, 0, lines.length);
+        before = other.before;
+        after = other.after;
+        size = other.size;
+    }
+
+    public int lineCount() {
+        return before + after + 1;
+    }
+
+    // the number of newlines before offset
+    public int lineOf(int offset) {
+        int first = lines.length - after;
+        return lowerBound(0, before, offset) + lowerBound(first, lines.length, offset - size) - first;
+    }
+
+    // the offset just past the newline that ends line - 1
+    public int lineStart(int line) {
+        if (line == 0) {
+            return 0;
+        } else if (line <= before) {
+            return lines[line - 1] + 1;
+        }
+        return lines[lines.length - after + line - before - 1] + size + 1;
+    }
+
+    // c was added to the text at offset
+    public void inserted(int offset, char c) {
+        moveGap(offset);
+        if (c == '\n') {
+            addLine(offset);
+        }
+        size += 1;
+    }
+
+    // chars[start, start + count) were added to the text at offset
+    public void inserted(int offset, char[] chars, int start, int count) {
+        moveGap(offset);
+        for (int i = 0; i < count; i += 1) {
+            if (chars[start + i] == '\n') {
+                addLine(offset + i);
+            }
+        }
+        size += count;
+    }
+
+    // c was removed from the text at offset
+    public void removed(int offset, char c) {
+        moveGap(offset);
+        if (c == '\n') {
+            // the first entry after the gap is the newline at offset
+            after -= 1;
+        }
+        size -= 1;
+    }
+
+    // chars[start, start + count) were removed from the text at offset
+    public void removed(int offset, char[] chars, int start, int count) {
+        moveGap(offset);
+        for (int i = 0; i < count; i += 1) {
+            if (chars[start + i] == '\n') {
+                after -= 1;
+            }
+        }
+        size -= count;
+    }
+
+    private void addLine(int offset) {
+        if (before + after == lines.length) {
+            int[] bigger = new int[lines.length * 2];
+            System.arraycopy(lines, 0, bigger, 0, before);
+            System.arraycopy(lines, lines.length - after, bigger, bigger.length - after, after);
+            lines = bigger;
+        }
+        lines[before] = offset;
+        before += 1;
+    }
+
+    // moves the gap to offset, so the entries before it are the newlines before offset
+    private void moveGap(int offset) {
+        while (before > 0 && lines[before - 1] >= offset) {
+            before -= 1;
+            after += 1;
+            lines[lines.length - after] = lines[before] - size;
+        }
+        while (after > 0 && lines[lines.length - after] + size < offset) {
+            lines[before] = lines[lines.length - after] + size;
+            before += 1;
+            after -= 1;
+        }
+    }
+
+    // index of the first entry in lines[from, to) that is at least key
+    private int lowerBound(int from, int to, int key) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (lines[mid] < key) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    // The offsets of the newlines in [from, to) of text, in order. A range longer than a chunk
+    // is cut into chunks that are scanned in parallel and then joined.
+    public static int[] find(final Scannable text, int from, int to) {
+        if (to - from <= CHUNK) {
+            return scan(text, from, to);
+        }
+        List<Callable<int[]>> tasks = new ArrayList<>();
+        for (int start = from; start < to; start += CHUNK) {
+            final int chunkStart = start;
+            final int chunkEnd = (int) Math.min(to, (long) start + CHUNK);
+            tasks.add(new Callable<int[]>() {
+                public int[] call() {
+                    return scan(text, chunkStart, chunkEnd);
+                }
+            });
+        }
+
+        List<Future<int[]>> results = ForkJoinPool.commonPool().invokeAll(tasks);
+        int[][] chunks = new int[results.size()][];
+        int count = 0;
+        try {
+            for (int i = 0; i < chunks.length; i += 1) {
+                chunks[i] = results.get(i).get();
+                count += chunks[i].length;
+            }
+        } catch (InterruptedException | ExecutionException exception) {
+            // the tasks have all finished, and scanning throws nothing checked
+            throw new IllegalStateException(exception);
+        }
+        int[] found = new int[count];
+        count = 0;
+        for (int[] chunk : chunks) {
+            System.arraycopy(chunk, 0, found, count, chunk.length);
+            count += chunk.length;
+        }
+        return found;
+    }
+
+    private static int[] scan(Scannable text, int from, int to) {
+        int[] found = new int[16];
+        int count = 0;
+        for (int i = from; i < to; i += 1) {
+            if (text.isNewline(i)) {
+                if (count == found.length) {
+                    int[] bigger = new int[found.length * 2];
+                    System.arraycopy(found, 0, bigger, 0, count);
+                    found = bigger;
+                }
+                found[count] = i;
+                count += 1;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(found, 0, result, 0, count);
+        return result;
+    }
+}
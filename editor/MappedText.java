@@ -0,0 +1,148 @@
+package editor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A file mapped into memory and read as text, one byte per character (ISO-8859-1), so that
+ * opening it costs nothing up front however large it is. Bytes are only decoded into chars a
+ * page at a time when something reads them, and only the pages read most recently are kept.
+ * Line endings are left the way they are in the file.
+ *
+ * The newlines are found separately by index, which one background thread calls on
+ * consecutive ranges while other threads read the text, and which scans each range in
+ * parallel chunks.
+ */
+public class MappedText {
+    // characters decoded at a time
+    private static final int PAGE = 1 << 16;
+    // decoded pages kept, 16 MB of chars
+    private static final int CACHED_PAGES = 128;
+    // bytes per mapping; a single MappedByteBuffer cannot be larger than 2 GB
+    private static final int REGION = 1 << 30;
+
+    private File file;
+    // kept open, so the text can be copied from the file even after it has been replaced
+    private FileChannel channel;
+    private MappedByteBuffer[] regions;
+    private int length;
+    private LinkedHashMap<Integer, char[]> pages;
+
+    // The positions of the newlines found so far. Only the thread calling index writes them,
+    // and only past lineCount, so an array handed out with a count stays valid.
+    private int[] lines = new int[1024];
+    private int lineCount;
+
+    public MappedText(File file) throws IOException {
+        this.file = file;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        boolean mapped = false;
+        try {
+            channel = randomAccessFile.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is larger than 2 GB");
+            }
+            length = (int) size;
+            regions = new MappedByteBuffer[(int) ((size + REGION - 1) / REGION)];
+            for (int r = 0; r < regions.length; r += 1) {
+                long start = (long) r * REGION;
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(REGION, size - start));
+            }
+            mapped = true;
+        } finally {
+            if (!mapped) {
+                randomAccessFile.close();
+            }
+        }
+        pages = new LinkedHashMap<Integer, char[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, char[]> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    // copies count bytes of the file from start to target, without decoding them
+    public void transferTo(int start, int count, WritableByteChannel target) throws IOException {
+        long end = (long) start + count;
+        long position = start;
+        while (position < end) {
+            long moved = channel.transferTo(position, end - position, target);
+            if (moved == 0 && position >= channel.size()) {
+                throw new IOException(file + " has been cut short");
+            }
+            position += moved;
+        }
+    }
+
+    public synchronized char charAt(int offset) {
+        return page(offset / PAGE)[offset % PAGE];
+    }
+
+    public synchronized void getChars(int start, int end, char[] dst, int dstBegin) {
+        while (start < end) {
+            int from = start % PAGE;
+            int count = Math.min(PAGE - from, end - start);
+            System.arraycopy(page(start / PAGE), from, dst, dstBegin, count);
+            dstBegin += count;
+            start += count;
+        }
+    }
+
+    private char[] page(int index) {
+        char[] page = pages.get(index);
+        if (page == null) {
+            int start = index * PAGE;
+            page = new char[Math.min(PAGE, length - start)];
+            // pages never cross regions, because REGION is a multiple of PAGE
+            MappedByteBuffer region = regions[start / REGION];
+            int offset = start % REGION;
+            for (int i = 0; i < page.length; i += 1) {
+                page[i] = (char) (region.get(offset + i) & 0xff);
+            }
+            pages.put(index, page);
+        }
+        return page;
+    }
+
+    // finds the newlines in [from, to), which must start where the last call ended
+    public void index(int from, int to) {
+        int[] found = LineIndex.find(new LineIndex.Scannable() {
+            public boolean isNewline(int offset) {
+                return regions[offset / REGION].get(offset % REGION) == '\n';
+            }
+        }, from, to);
+        if (lineCount + found.length > lines.length) {
+            int[] bigger = new int[Math.max(lines.length * 2, lineCount + found.length)];
+            System.arraycopy(lines, 0, bigger, 0, lineCount);
+            lines = bigger;
+        }
+        System.arraycopy(found, 0, lines, lineCount, found.length);
+        lineCount += found.length;
+    }
+
+    // the newlines found so far; the first lineCount() entries are valid
+    public int[] lines() {
+        return lines;
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+}
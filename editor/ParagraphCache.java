@@ -0,0 +1,83 @@
+package editor;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The line breaks of paragraphs a Layout has wrapped, keyed by everything that decides them:
+ * the characters of the paragraph, the glyphs and the margins. A paragraph wrapped before
+ * with the same font and width, such as after zooming back to a size or undoing an edit, is
+ * looked up instead of measured again. The characters are keyed by a 64-bit hash and their
+ * number, so the cache holds no text. The wrappers a layout makes for the LayoutWorker share
+ * its cache, so paragraphs wrapped on the worker's thread are found again, and it is locked.
+ */
+public class ParagraphCache {
+    // the least recently used paragraphs are dropped beyond this many
+    private static final int ENTRIES = 1 << 16;
+
+    private static class Key {
+        long hash;
+        int length;
+        Object glyphs;
+        int leftMargin;
+        int rightMargin;
+
+        Key(long hash, int length, Object glyphs, int leftMargin, int rightMargin) {
+            this.hash = hash;
+            this.length = length;
+            this.glyphs = glyphs;
+            this.leftMargin = leftMargin;
+            this.rightMargin = rightMargin;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return hash == key.hash && length == key.length && glyphs.equals(key.glyphs)
+                    && leftMargin == key.leftMargin && rightMargin == key.rightMargin;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (hash ^ (hash >>> 32)) * 31 + rightMargin;
+        }
+    }
+
+    // A wrapped paragraph: its line starts as Layout keeps them, which are never changed once
+    // made, since Layout takes a copy to change, and the x it ends at if it fits on one line.
+    public static class Wrapped {
+        public final int[] rows;
+        public final int width;
+
+        Wrapped(int[] rows, int width) {
+            this.rows = rows;
+            this.width = width;
+        }
+    }
+
+    private LinkedHashMap<Key, Wrapped> paragraphs;
+
+    public ParagraphCache() {
+        paragraphs = new LinkedHashMap<Key, Wrapped>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Wrapped> eldest) {
+                return size() > ENTRIES;
+            }
+        };
+    }
+
+    // the paragraph wrapped with these, or null
+    public synchronized Wrapped get(long hash, int length, Object glyphs, int leftMargin,
+                                    int rightMargin) {
+        return paragraphs.get(new Key(hash, length, glyphs, leftMargin, rightMargin));
+    }
+
+    public synchronized void put(long hash, int length, Object glyphs, int leftMargin,
+                                 int rightMargin, int[] rows, int width) {
+        paragraphs.put(new Key(hash, length, glyphs, leftMargin, rightMargin),
+                new Wrapped(rows, width));
+    }
+}
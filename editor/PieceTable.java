@@ -0,0 +1,606 @@
+package editor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+// Text stored as a list of pieces, each pointing into either the read-only original buffer
+// or the append-only add buffer. Memory grows with the number of edits, not the number of
+// characters, and typing at one spot only ever extends the last piece.
+public class PieceTable implements TextStore {
+    // how many added characters are encoded at a time when saving a mapped file
+    private static final int WRITE_BLOCK = 1 << 16;
+
+    private char[] original;
+    // the mapped file the original buffer is read from instead of original, or null
+    private MappedText mapped;
+    // how much of the mapped file has been added to the text
+    private int mappedEnd;
+    private char[] added;
+    private int addedLength;
+    // sorted positions of the newlines in each buffer, so a piece's newlines can be counted
+    // by binary search instead of by scanning it
+    private int[] originalLines;
+    private int originalLineCount;
+    private int[] addedLines;
+    private int addedLineCount;
+    // the length of the add buffer when the last snapshot was taken; snapshots may read all of
+    // it, so remove must not hand any of it back
+    private int frozenLength;
+
+    private ArrayList<Piece> pieces;
+    // offsets and line numbers of the pieces at index >= shiftFrom are still missing
+    // shiftBy and shiftLines, so an edit only touches the pieces between it and the last edit
+    private int shiftFrom;
+    private int shiftBy;
+    private int shiftLines;
+
+    private int size;
+    private int newlines;
+    private int cursor;
+    // the piece the last add went into, or -1 if the piece list changed since
+    private int lastAdded;
+
+    private static class Piece {
+        boolean added;
+        int start;
+        int length;
+        int offset;
+        // newlines before this piece
+        int line;
+
+        Piece(boolean added, int start, int length, int offset, int line) {
+            this.added = added;
+            this.start = start;
+            this.length = length;
+            this.offset = offset;
+            this.line = line;
+        }
+    }
+
+    // Creates an empty PieceTable
+    public PieceTable() {
+        this(new char[0]);
+    }
+
+    // Creates a PieceTable whose original buffer is the given text; the array is not copied
+    public PieceTable(char[] text) {
+        original = text;
+        added = new char[16];
+        addedLength = 0;
+        originalLines = LineIndex.find(new LineIndex.Scannable() {
+            public boolean isNewline(int offset) {
+                return original[offset] == '\n';
+            }
+        }, 0, text.length);
+        originalLineCount = originalLines.length;
+        addedLines = new int[16];
+        addedLineCount = 0;
+        pieces = new ArrayList<>();
+        if (text.length > 0) {
+            pieces.add(new Piece(false, 0, text.length, 0, 0));
+        }
+        shiftFrom = 0;
+        shiftBy = 0;
+        shiftLines = 0;
+        size = text.length;
+        newlines = originalLineCount;
+        cursor = 0;
+        lastAdded = -1;
+    }
+
+    // a copy of source's piece list sharing its buffers, which only grow past what it uses
+    private PieceTable(PieceTable source) {
+        original = source.original;
+        mapped = source.mapped;
+        mappedEnd = source.mappedEnd;
+        added = source.added;
+        addedLength = source.addedLength;
+        originalLines = source.originalLines;
+        originalLineCount = source.originalLineCount;
+        addedLines = source.addedLines;
+        addedLineCount = source.addedLineCount;
+        frozenLength = addedLength;
+        pieces = new ArrayList<>(source.pieces.size());
+        for (int i = 0; i < source.pieces.size(); i += 1) {
+            Piece piece = source.pieces.get(i);
+            pieces.add(new Piece(piece.added, piece.start, piece.length,
+                    source.offsetOf(i), source.linesBefore(i)));
+        }
+        shiftFrom = pieces.size();
+        shiftBy = 0;
+        shiftLines = 0;
+        size = source.size;
+        newlines = source.newlines;
+        cursor = 0;
+        lastAdded = -1;
+    }
+
+    public ReadableText snapshot() {
+        frozenLength = addedLength;
+        return new PieceTable(this);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public char charAt(int offset) {
+        int index = find(offset);
+        Piece piece = pieces.get(index);
+        if (!piece.added && mapped != null) {
+            return mapped.charAt(piece.start + offset - offsetOf(index));
+        }
+        return buffer(piece)[piece.start + offset - offsetOf(index)];
+    }
+
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        int index = find(start);
+        while (start < end) {
+            Piece piece = pieces.get(index);
+            int from = start - offsetOf(index);
+            int count = Math.min(piece.length - from, end - start);
+            if (!piece.added && mapped != null) {
+                mapped.getChars(piece.start + from, piece.start + from + count, dst, dstBegin);
+            } else {
+                System.arraycopy(buffer(piece), piece.start + from, dst, dstBegin, count);
+            }
+            dstBegin += count;
+            start += count;
+            index += 1;
+        }
+    }
+
+    // Makes the mapped file the original buffer of this table, which must be empty. None of
+    // it is in the text until appendMapped adds it.
+    public void setOriginal(MappedText source) {
+        mapped = source;
+        mappedEnd = 0;
+        original = null;
+        originalLines = new int[0];
+        originalLineCount = 0;
+    }
+
+    // Adds the mapped file from where the last call stopped up to end to the end of the text,
+    // without moving the cursor. The first lineCount entries of lines are the positions of the
+    // newlines in the file before end.
+    public void appendMapped(int end, int[] lines, int lineCount) {
+        int length = end - mappedEnd;
+        int found = lineCount - originalLineCount;
+        originalLines = lines;
+        originalLineCount = lineCount;
+
+        Piece last = pieces.isEmpty() ? null : pieces.get(pieces.size() - 1);
+        if (last != null && !last.added && last.start + last.length == mappedEnd) {
+            last.length += length;
+        } else if (length > 0) {
+            moveShift(pieces.size());
+            pieces.add(new Piece(false, mappedEnd, length, size, newlines));
+            shiftFrom = pieces.size();
+        }
+        mappedEnd = end;
+        size += length;
+        newlines += found;
+    }
+
+    // Saving a mapped file. The piece list says exactly which parts of the text differ from
+    // the file, so a save only has to encode the added pieces; these are called on snapshots.
+
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
+    // True if the text is as long as the mapped file and every piece from the file is where
+    // it is in the file, so that writing the added pieces over the file gives the text. A
+    // newline typed into a file whose lines end in "\r\n" is written as both, which moves
+    // the rest of the file.
+    public boolean matchesMapped(String lineSeparator) {
+        if (mapped == null || size != mapped.length()) {
+            return false;
+        }
+        for (int i = 0; i < pieces.size(); i += 1) {
+            Piece piece = pieces.get(i);
+            if (!piece.added && piece.start != offsetOf(i)) {
+                return false;
+            }
+            if (piece.added && lineSeparator.length() > 1) {
+                for (int k = piece.start; k < piece.start + piece.length; k += 1) {
+                    if (added[k] == '\n') {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // writes only the added pieces, each at its offset, into channel, which holds the file
+    public void patchMapped(FileChannel channel, String lineSeparator, SaveListener listener)
+            throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(WRITE_BLOCK);
+        int step = WRITE_BLOCK / lineSeparator.length();
+        int written = 0;
+        for (int i = 0; i < pieces.size(); i += 1) {
+            Piece piece = pieces.get(i);
+            if (piece.added) {
+                long position = offsetOf(i);
+                for (int from = 0; from < piece.length; from += step) {
+                    encodeAdded(piece.start + from, Math.min(step, piece.length - from),
+                            lineSeparator, bytes);
+                    while (bytes.hasRemaining()) {
+                        position += channel.write(bytes, position);
+                    }
+                }
+                written += piece.length;
+                if (listener != null) {
+                    listener.progress(written, size);
+                }
+            }
+        }
+    }
+
+    // writes the whole text into channel, copying the pieces from the file with transferTo
+    public void transferMapped(FileChannel channel, String lineSeparator, SaveListener listener)
+            throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(WRITE_BLOCK);
+        int step = WRITE_BLOCK / lineSeparator.length();
+        int written = 0;
+        for (Piece piece : pieces) {
+            if (piece.added) {
+                for (int from = 0; from < piece.length; from += step) {
+                    encodeAdded(piece.start + from, Math.min(step, piece.length - from),
+                            lineSeparator, bytes);
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                }
+            } else {
+                mapped.transferTo(piece.start, piece.length, channel);
+            }
+            written += piece.length;
+            if (listener != null) {
+                listener.progress(written, size);
+            }
+        }
+    }
+
+    // whether every character typed into the text fits in the mapped file's one byte each
+    public boolean fitsMapped() {
+        for (Piece piece : pieces) {
+            if (piece.added) {
+                for (int i = piece.start; i < piece.start + piece.length; i += 1) {
+                    if (added[i] > 0xff) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    // fills bytes with count characters of the add buffer from start, in the mapped file's
+    // one byte per character, which fitsMapped has checked they fit in, and flips it; each
+    // newline is written as lineSeparator
+    private void encodeAdded(int start, int count, String lineSeparator, ByteBuffer bytes) {
+        bytes.clear();
+        for (int i = start; i < start + count; i += 1) {
+            if (added[i] == '\n') {
+                for (int k = 0; k < lineSeparator.length(); k += 1) {
+                    bytes.put((byte) lineSeparator.charAt(k));
+                }
+            } else {
+                bytes.put((byte) added[i]);
+            }
+        }
+        bytes.flip();
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(int offset) {
+        cursor = offset;
+    }
+
+    public void add(char c) {
+        append(c);
+        place(1, c == '\n' ? 1 : 0);
+    }
+
+    public void add(char[] chars, int start, int length) {
+        if (length == 0) {
+            return;
+        }
+        ensureAdded(length);
+        int lines = 0;
+        for (int i = 0; i < length; i += 1) {
+            if (chars[start + i] == '\n') {
+                addLine(addedLength + i);
+                lines += 1;
+            }
+        }
+        System.arraycopy(chars, start, added, addedLength, length);
+        addedLength += length;
+        place(length, lines);
+    }
+
+    // puts the last length characters of the add buffer, which hold lines newlines, at the
+    // cursor, extending the piece the last add went into if they follow it
+    private void place(int length, int lines) {
+        int start = addedLength - length;
+        if (lastAdded != -1) {
+            Piece piece = pieces.get(lastAdded);
+            if (piece.start + piece.length == start
+                    && offsetOf(lastAdded) + piece.length == cursor) {
+                piece.length += length;
+                shift(lastAdded + 1, length, lines);
+                size += length;
+                newlines += lines;
+                cursor += length;
+                return;
+            }
+        }
+
+        int index = find(cursor);
+        if (index < pieces.size() && offsetOf(index) < cursor) {
+            split(index, cursor);
+            index += 1;
+        }
+        Piece piece = new Piece(true, start, length, cursor, linesBefore(index));
+        moveShift(index);
+        pieces.add(index, piece);
+        shiftFrom = index + 1;
+        shift(index + 1, length, lines);
+
+        lastAdded = index;
+        size += length;
+        newlines += lines;
+        cursor += length;
+    }
+
+    public void remove() {
+        int index = find(cursor - 1);
+        Piece piece = pieces.get(index);
+        int pieceOffset = offsetOf(index);
+        int lines = charAt(cursor - 1) == '\n' ? 1 : 0;
+
+        if (cursor - 1 == pieceOffset + piece.length - 1) {
+            // hand the tail of the add buffer back if nothing else, a snapshot included, can
+            // point at it
+            if (piece.added && piece.start + piece.length == addedLength
+                    && addedLength > frozenLength) {
+                addedLength -= 1;
+                addedLineCount -= lines;
+            }
+            piece.length -= 1;
+        } else if (cursor - 1 == pieceOffset) {
+            piece.start += 1;
+            piece.length -= 1;
+        } else {
+            split(index, cursor);
+            piece.length -= 1;
+        }
+
+        if (piece.length == 0) {
+            moveShift(index + 1);
+            pieces.remove(index);
+            shiftFrom = index;
+            shift(index, -1, -lines);
+            lastAdded = -1;
+        } else {
+            shift(index + 1, -1, -lines);
+            if (index != lastAdded) {
+                lastAdded = -1;
+            }
+        }
+        size -= 1;
+        newlines -= lines;
+        cursor -= 1;
+    }
+
+    public void remove(int count) {
+        if (count == 0) {
+            return;
+        }
+        int start = cursor - count;
+        int lines = lineOf(cursor) - lineOf(start);
+        // cut the pieces at both ends, so that the range is exactly the pieces [first, last)
+        int first = find(start);
+        if (offsetOf(first) < start) {
+            split(first, start);
+            first += 1;
+        }
+        int last = find(cursor);
+        if (last < pieces.size() && offsetOf(last) < cursor) {
+            split(last, cursor);
+            last += 1;
+        }
+
+        // hand back the tail of the add buffer if the range ends it, as remove does
+        Piece end = pieces.get(last - 1);
+        if (end.added && end.start + end.length == addedLength) {
+            int length = Math.max(end.start, frozenLength);
+            if (length < addedLength) {
+                addedLineCount = lowerBound(addedLines, addedLineCount, length);
+                addedLength = length;
+            }
+        }
+
+        moveShift(first);
+        pieces.subList(first, last).clear();
+        shift(first, -count, -lines);
+        lastAdded = -1;
+        size -= count;
+        newlines -= lines;
+        cursor = start;
+    }
+
+    public int lineCount() {
+        return newlines + 1;
+    }
+
+    public int lineOf(int offset) {
+        int index = find(offset);
+        if (index == pieces.size()) {
+            return newlines;
+        }
+        Piece piece = pieces.get(index);
+        return linesBefore(index) + countLines(piece, piece.start + offset - offsetOf(index));
+    }
+
+    public int lineStart(int line) {
+        if (line == 0) {
+            return 0;
+        }
+        // the last piece with fewer than line newlines before it holds the newline we want
+        int low = 0;
+        int high = pieces.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (linesBefore(mid) < line) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        Piece piece = pieces.get(low);
+        int[] positions = piece.added ? addedLines : originalLines;
+        int newline = positions[lowerBound(positions, linesIn(piece), piece.start) + line - linesBefore(low) - 1];
+        return offsetOf(low) + newline - piece.start + 1;
+    }
+
+    private char[] buffer(Piece piece) {
+        return piece.added ? added : original;
+    }
+
+    private int linesIn(Piece piece) {
+        return piece.added ? addedLineCount : originalLineCount;
+    }
+
+    // the number of newlines in the piece's buffer between the start of the piece and end
+    private int countLines(Piece piece, int end) {
+        int[] positions = piece.added ? addedLines : originalLines;
+        int count = linesIn(piece);
+        return lowerBound(positions, count, end) - lowerBound(positions, count, piece.start);
+    }
+
+    // index of the first of the count sorted positions that is at least key
+    private static int lowerBound(int[] positions, int count, int key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (positions[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] bigger = new int[array.length * 2];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    private void append(char c) {
+        ensureAdded(1);
+        if (c == '\n') {
+            addLine(addedLength);
+        }
+        added[addedLength] = c;
+        addedLength += 1;
+    }
+
+    private void ensureAdded(int extra) {
+        if (addedLength + extra > added.length) {
+            char[] bigger = new char[Math.max(added.length * 2, addedLength + extra)];
+            System.arraycopy(added, 0, bigger, 0, addedLength);
+            added = bigger;
+        }
+    }
+
+    // records a newline at position in the add buffer
+    private void addLine(int position) {
+        if (addedLineCount == addedLines.length) {
+            addedLines = grow(addedLines);
+        }
+        addedLines[addedLineCount] = position;
+        addedLineCount += 1;
+    }
+
+    // the document offset of the piece at index, or the size for the index past the end
+    private int offsetOf(int index) {
+        if (index == pieces.size()) {
+            return size;
+        }
+        Piece piece = pieces.get(index);
+        return index >= shiftFrom ? piece.offset + shiftBy : piece.offset;
+    }
+
+    // the number of newlines before the piece at index
+    private int linesBefore(int index) {
+        if (index == pieces.size()) {
+            return newlines;
+        }
+        Piece piece = pieces.get(index);
+        return index >= shiftFrom ? piece.line + shiftLines : piece.line;
+    }
+
+    // index of the piece containing offset, found by binary search over piece offsets
+    private int find(int offset) {
+        if (offset >= size) {
+            return pieces.size();
+        }
+        int low = 0;
+        int high = pieces.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (offsetOf(mid) <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // splits the piece at index so that a new piece begins at the document offset at
+    private void split(int index, int at) {
+        Piece piece = pieces.get(index);
+        int head = at - offsetOf(index);
+        int line = linesBefore(index) + countLines(piece, piece.start + head);
+        Piece tail = new Piece(piece.added, piece.start + head, piece.length - head, at, line);
+        piece.length = head;
+        moveShift(index + 1);
+        pieces.add(index + 1, tail);
+        shiftFrom = index + 2;
+        lastAdded = -1;
+    }
+
+    // adds delta to the offset and lines to the line of every piece from index on
+    private void shift(int index, int delta, int lines) {
+        moveShift(index);
+        shiftBy += delta;
+        shiftLines += lines;
+    }
+
+    // settles the pending shift so that it starts at index
+    private void moveShift(int index) {
+        if (shiftBy != 0 || shiftLines != 0) {
+            for (int i = shiftFrom; i < index; i += 1) {
+                pieces.get(i).offset += shiftBy;
+                pieces.get(i).line += shiftLines;
+            }
+            for (int i = index; i < shiftFrom; i += 1) {
+                pieces.get(i).offset -= shiftBy;
+                pieces.get(i).line -= shiftLines;
+            }
+        }
+        shiftFrom = index;
+    }
+}
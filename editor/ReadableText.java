@@ -0,0 +1,25 @@
+package editor;
+
+// Reading a text by offset and by line. A TextStore is read this way, and so is a snapshot of
+// one, which later edits to the store do not change and which any thread may read.
+public interface ReadableText {
+    int size();
+
+    char charAt(int offset);
+
+    // copies the characters in [start, end) into dst, like String.getChars
+    void getChars(int start, int end, char[] dst, int dstBegin);
+
+    // number of lines, which is one more than the number of newlines
+    int lineCount();
+
+    // the line containing offset, counting from 0
+    int lineOf(int offset);
+
+    // the offset of the first character of line
+    int lineStart(int line);
+
+    default int columnOf(int offset) {
+        return offset - lineStart(lineOf(offset));
+    }
+}
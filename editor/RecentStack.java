@@ -1,40 +1,81 @@
 package editor;
 
-import java.util.LinkedList;
-
-// Stack with capabilities of removing from the bottom
+// Stack with capabilities of removing from the bottom. The items live in a fixed array used as
+// a ring, so pushing, popping and dropping the bottom item take constant time and allocate
+// nothing; once the stack is full, each push drops the bottom item.
 public class RecentStack<Item> {
+    private Item[] items;
+    // the index of the bottom item, and the number of items above it, itself included
+    private int bottom;
     private int size;
-    private LinkedList<Item> buffer;
 
-    public RecentStack() {
+    @SuppressWarnings("unchecked")
+    public RecentStack(int capacity) {
+        items = (Item[]) new Object[capacity];
+        bottom = 0;
         size = 0;
-        buffer = new LinkedList<>();
     }
 
-    public void push(Item item) {
-        if (size == 100) {
-            buffer.remove(0);
-            size -= 1;
+    // pushes item, and returns the item at the bottom if it had to go to make room, or null
+    public Item push(Item item) {
+        Item dropped = null;
+        if (size == items.length) {
+            dropped = removeOldest();
         }
-        buffer.addLast(item);
+        items[index(size)] = item;
         size += 1;
+        return dropped;
     }
 
     public Item pop() {
         if (size != 0) {
             size -= 1;
-            return buffer.removeLast();
+            Item item = items[index(size)];
+            items[index(size)] = null;
+            return item;
+        }
+        return null;
+    }
+
+    // the item on top, or null
+    public Item peek() {
+        return size == 0 ? null : items[index(size - 1)];
+    }
+
+    // removes and returns the item at the bottom, or null
+    public Item removeOldest() {
+        if (size != 0) {
+            Item item = items[bottom];
+            items[bottom] = null;
+            bottom = index(1);
+            size -= 1;
+            return item;
         }
         return null;
     }
 
     public void clear() {
-        buffer.clear();
-        size = 0;
+        while (size != 0) {
+            pop();
+        }
+        bottom = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return items.length;
     }
 
     public boolean isEmpty() {
         return size == 0;
     }
+
+    // the array index of the item i places above the bottom
+    private int index(int i) {
+        int index = bottom + i;
+        return index >= items.length ? index - items.length : index;
+    }
 }
@@ -0,0 +1,362 @@
+package editor;
+
+// Height-balanced tree of character chunks. Every subtree caches its length and the number
+// of newlines in it, so finding an offset, the line of an offset or the start of a line
+// walks a single root-to-leaf path.
+//
+// A snapshot shares the whole tree. Every segment records the generation it was made in, and
+// taking a snapshot starts a new one, so an edit copies the segments of older generations on
+// its path before changing them and leaves the snapshot's tree as it was.
+public class Rope implements TextStore {
+    // the most characters a leaf holds before it is split
+    private static final int CHUNK = 512;
+
+    private Segment root;
+    private int cursor;
+    private char[] single = new char[1];
+    // segments made before this generation may belong to a snapshot
+    private int generation;
+
+    private static class Segment {
+        Segment left;
+        Segment right;
+        char[] chars;
+        int length;
+        int newlines;
+        int height;
+        int generation;
+
+        // a leaf holding the first length characters of chars
+        Segment(char[] chars, int length, int generation) {
+            this.chars = chars;
+            this.length = length;
+            this.newlines = countNewlines(chars, 0, length);
+            this.height = 0;
+            this.generation = generation;
+        }
+
+        // a branch over two non-empty subtrees
+        Segment(Segment left, Segment right, int generation) {
+            this.left = left;
+            this.right = right;
+            this.generation = generation;
+            update();
+        }
+
+        boolean isLeaf() {
+            return chars != null;
+        }
+
+        void update() {
+            length = left.length + right.length;
+            newlines = left.newlines + right.newlines;
+            height = Math.max(left.height, right.height) + 1;
+        }
+    }
+
+    // Creates an empty Rope
+    public Rope() {
+        root = null;
+        cursor = 0;
+    }
+
+    // Creates a Rope holding a copy of the given text
+    public Rope(char[] text) {
+        root = text.length == 0 ? null : build(text, 0, text.length);
+        cursor = 0;
+    }
+
+    // a Rope over a tree that belongs to a snapshot
+    private Rope(Segment root) {
+        this.root = root;
+        cursor = 0;
+    }
+
+    public ReadableText snapshot() {
+        generation += 1;
+        return new Rope(root);
+    }
+
+    public int size() {
+        return root == null ? 0 : root.length;
+    }
+
+    public char charAt(int offset) {
+        Segment segment = root;
+        while (!segment.isLeaf()) {
+            if (offset < segment.left.length) {
+                segment = segment.left;
+            } else {
+                offset -= segment.left.length;
+                segment = segment.right;
+            }
+        }
+        return segment.chars[offset];
+    }
+
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        if (start < end) {
+            copy(root, start, end, dst, dstBegin);
+        }
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(int offset) {
+        cursor = offset;
+    }
+
+    public void add(char c) {
+        single[0] = c;
+        if (root == null) {
+            root = build(single, 0, 1);
+        } else {
+            root = insert(root, cursor, single, 0, 1);
+        }
+        cursor += 1;
+    }
+
+    public void add(char[] chars, int start, int length) {
+        if (length == 0) {
+            return;
+        } else if (root == null) {
+            root = build(chars, start, start + length);
+        } else {
+            root = insert(root, cursor, chars, start, length);
+        }
+        cursor += length;
+    }
+
+    public void remove() {
+        root = delete(root, cursor - 1, 1);
+        cursor -= 1;
+    }
+
+    public void remove(int count) {
+        if (count > 0) {
+            root = delete(root, cursor - count, count);
+            cursor -= count;
+        }
+    }
+
+    public int lineCount() {
+        return size() == 0 ? 1 : root.newlines + 1;
+    }
+
+    public int lineOf(int offset) {
+        if (root == null) {
+            return 0;
+        }
+        int line = 0;
+        Segment segment = root;
+        while (!segment.isLeaf()) {
+            if (offset <= segment.left.length) {
+                segment = segment.left;
+            } else {
+                line += segment.left.newlines;
+                offset -= segment.left.length;
+                segment = segment.right;
+            }
+        }
+        return line + countNewlines(segment.chars, 0, offset);
+    }
+
+    public int lineStart(int line) {
+        if (line == 0) {
+            return 0;
+        }
+        int offset = 0;
+        Segment segment = root;
+        while (!segment.isLeaf()) {
+            if (line <= segment.left.newlines) {
+                segment = segment.left;
+            } else {
+                line -= segment.left.newlines;
+                offset += segment.left.length;
+                segment = segment.right;
+            }
+        }
+        int i = 0;
+        while (true) {
+            if (segment.chars[i] == '\n') {
+                line -= 1;
+                if (line == 0) {
+                    return offset + i + 1;
+                }
+            }
+            i += 1;
+        }
+    }
+
+    private static int countNewlines(char[] chars, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i += 1) {
+            if (chars[i] == '\n') {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    // builds a perfectly balanced tree over src[start, end), which must not be empty
+    private Segment build(char[] src, int start, int end) {
+        int length = end - start;
+        if (length <= CHUNK) {
+            char[] chars = new char[Math.max(16, length)];
+            System.arraycopy(src, start, chars, 0, length);
+            return new Segment(chars, length, generation);
+        }
+        int mid = start + length / 2;
+        return new Segment(build(src, start, mid), build(src, mid, end), generation);
+    }
+
+    // segment itself if this generation made it, or else a copy of it that may be changed
+    private Segment own(Segment segment) {
+        if (segment.generation == generation) {
+            return segment;
+        } else if (segment.isLeaf()) {
+            char[] chars = new char[segment.chars.length];
+            System.arraycopy(segment.chars, 0, chars, 0, segment.length);
+            return new Segment(chars, segment.length, generation);
+        }
+        return new Segment(segment.left, segment.right, generation);
+    }
+
+    private static void copy(Segment segment, int start, int end, char[] dst, int dstBegin) {
+        if (segment.isLeaf()) {
+            System.arraycopy(segment.chars, start, dst, dstBegin, end - start);
+            return;
+        }
+        int split = segment.left.length;
+        if (start < split) {
+            copy(segment.left, start, Math.min(end, split), dst, dstBegin);
+        }
+        if (end > split) {
+            int from = Math.max(start, split);
+            copy(segment.right, from - split, end - split, dst, dstBegin + from - start);
+        }
+    }
+
+    // inserts src[start, start + count) at offset and returns the new root of the subtree
+    private Segment insert(Segment segment, int offset, char[] src, int start, int count) {
+        if (segment.isLeaf()) {
+            int length = segment.length;
+            if (length + count > CHUNK) {
+                char[] joined = new char[length + count];
+                System.arraycopy(segment.chars, 0, joined, 0, offset);
+                System.arraycopy(src, start, joined, offset, count);
+                System.arraycopy(segment.chars, offset, joined, offset + count, length - offset);
+                return build(joined, 0, joined.length);
+            }
+            segment = own(segment);
+            if (length + count > segment.chars.length) {
+                char[] bigger = new char[Math.min(CHUNK, Math.max(length + count, segment.chars.length * 2))];
+                System.arraycopy(segment.chars, 0, bigger, 0, length);
+                segment.chars = bigger;
+            }
+            System.arraycopy(segment.chars, offset, segment.chars, offset + count, length - offset);
+            System.arraycopy(src, start, segment.chars, offset, count);
+            segment.length += count;
+            segment.newlines += countNewlines(src, start, start + count);
+            return segment;
+        }
+        int split = segment.left.length;
+        if (offset <= split) {
+            return attach(segment, insert(segment.left, offset, src, start, count), segment.right);
+        }
+        return attach(segment, segment.left, insert(segment.right, offset - split, src, start, count));
+    }
+
+    // deletes count characters from offset and returns the new subtree, or null if it is empty
+    private Segment delete(Segment segment, int offset, int count) {
+        if (segment.isLeaf()) {
+            segment = own(segment);
+            segment.newlines -= countNewlines(segment.chars, offset, offset + count);
+            System.arraycopy(segment.chars, offset + count, segment.chars, offset,
+                    segment.length - offset - count);
+            segment.length -= count;
+            return segment.length == 0 ? null : segment;
+        }
+        int split = segment.left.length;
+        int end = offset + count;
+        Segment left = segment.left;
+        Segment right = segment.right;
+        if (offset < split) {
+            left = delete(left, offset, Math.min(end, split) - offset);
+        }
+        if (end > split) {
+            int from = Math.max(offset, split);
+            right = delete(right, from - split, end - from);
+        }
+        if (left == null) {
+            return right;
+        } else if (right == null) {
+            return left;
+        }
+        return attach(segment, left, right);
+    }
+
+    // reuses segment as the parent of left and right when their heights allow it
+    private Segment attach(Segment segment, Segment left, Segment right) {
+        if (Math.abs(left.height - right.height) > 1) {
+            return join(left, right);
+        }
+        segment = own(segment);
+        segment.left = left;
+        segment.right = right;
+        segment.update();
+        return segment;
+    }
+
+    // concatenates two balanced trees of any heights into one balanced tree
+    private Segment join(Segment left, Segment right) {
+        if (left.height > right.height + 1) {
+            return balance(left, left.left, join(left.right, right));
+        } else if (right.height > left.height + 1) {
+            return balance(right, join(left, right.left), right.right);
+        }
+        return new Segment(left, right, generation);
+    }
+
+    private Segment balance(Segment segment, Segment left, Segment right) {
+        segment = own(segment);
+        segment.left = left;
+        segment.right = right;
+        segment.update();
+        int diff = left.height - right.height;
+        if (diff > 1) {
+            if (left.left.height < left.right.height) {
+                segment.left = rotateLeft(left);
+            }
+            return rotateRight(segment);
+        } else if (diff < -1) {
+            if (right.right.height < right.left.height) {
+                segment.right = rotateRight(right);
+            }
+            return rotateLeft(segment);
+        }
+        return segment;
+    }
+
+    private Segment rotateLeft(Segment segment) {
+        segment = own(segment);
+        Segment right = own(segment.right);
+        segment.right = right.left;
+        segment.update();
+        right.left = segment;
+        right.update();
+        return right;
+    }
+
+    private Segment rotateRight(Segment segment) {
+        segment = own(segment);
+        Segment left = own(segment.left);
+        segment.left = left.right;
+        segment.update();
+        left.right = segment;
+        left.update();
+        return left;
+    }
+}
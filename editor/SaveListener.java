@@ -0,0 +1,15 @@
+package editor;
+
+import java.io.File;
+import java.io.IOException;
+
+// Hears how a save running in the background is getting on, on the thread running it.
+public interface SaveListener {
+    // written of the total characters have been written so far
+    void progress(int written, int total);
+
+    void saved(File file);
+
+    // the save stopped, and file is as it was before
+    void failed(File file, IOException exception);
+}
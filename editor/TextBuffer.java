@@ -1,11 +1,15 @@
 package editor;
 
-// Faster DoubleLinkedListDeque with a cursorNode
-public class TextBuffer<Item> {
+// Faster DoubleLinkedListDeque with a cursorNode. Kept as a TextStore (-Deditor.buffer=linked)
+// so the other engines have a baseline to be measured against; every lookup by offset walks
+// the list, and lines are found through a LineIndex kept up to date on every edit.
+public class TextBuffer implements TextStore {
     public Node sentinel_front;
     public Node sentinel_back;
     public Node cursorNode;
     private int size;
+    private int cursor;
+    private LineIndex lines;
 
     // Creates an empty TextBuffer
     public TextBuffer() {
@@ -16,22 +20,93 @@ public class TextBuffer<Item> {
 
         size = 0;
         cursorNode = sentinel_back;
+        cursor = 0;
+        lines = new LineIndex();
     }
 
     public int size() {
         return size;
     }
 
-    public void add(Item item) {
-        Node newNode = new Node(cursorNode.prev, item, cursorNode);
+    public char charAt(int offset) {
+        return (Character) nodeAt(offset).item;
+    }
+
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        Node ptr = nodeAt(start);
+        for (int i = start; i < end; i += 1) {
+            dst[dstBegin] = (Character) ptr.item;
+            dstBegin += 1;
+            ptr = ptr.next;
+        }
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(int offset) {
+        cursorNode = nodeAt(offset);
+        cursor = offset;
+    }
+
+    public void add(char c) {
+        Node newNode = new Node(cursorNode.prev, c, cursorNode);
         cursorNode.prev.next = newNode;
         cursorNode.prev = newNode;
+        lines.inserted(cursor, c);
         size += 1;
+        cursor += 1;
+    }
+
+    public void add(char[] chars, int start, int length) {
+        for (int i = start; i < start + length; i += 1) {
+            add(chars[i]);
+        }
     }
 
     public void remove() {
+        lines.removed(cursor - 1, (Character) cursorNode.prev.item);
         cursorNode.prev.prev.next = cursorNode;
         cursorNode.prev = cursorNode.prev.prev;
         size -= 1;
+        cursor -= 1;
+    }
+
+    public void remove(int count) {
+        for (int i = 0; i < count; i += 1) {
+            remove();
+        }
+    }
+
+    // a copy of the text, since the list cannot be shared
+    public ReadableText snapshot() {
+        char[] chars = new char[size];
+        getChars(0, size, chars, 0);
+        return new PieceTable(chars);
+    }
+
+    public int lineCount() {
+        return lines.lineCount();
+    }
+
+    public int lineOf(int offset) {
+        return lines.lineOf(offset);
+    }
+
+    public int lineStart(int line) {
+        return lines.lineStart(line);
+    }
+
+    // walks to the node at offset from the cursor, or the sentinel_back for the size
+    private Node nodeAt(int offset) {
+        Node ptr = cursorNode;
+        for (int i = cursor; i < offset; i += 1) {
+            ptr = ptr.next;
+        }
+        for (int i = cursor; i > offset; i -= 1) {
+            ptr = ptr.prev;
+        }
+        return ptr;
     }
 }
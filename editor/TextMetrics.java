@@ -0,0 +1,33 @@
+package editor;
+
+import javafx.scene.text.Font;
+
+// GlyphMetrics for a JavaFX font. Widths come from the GlyphCache of the current font, so
+// changing the font size switches to another table instead of measuring every glyph again.
+public class TextMetrics implements GlyphMetrics {
+    private GlyphCache cache;
+
+    public TextMetrics(String fontName, int fontSize) {
+        setFont(fontName, fontSize);
+    }
+
+    public void setFont(String fontName, int fontSize) {
+        cache = GlyphCache.forFont(fontName, fontSize);
+    }
+
+    public Font getFont() {
+        return cache.getFont();
+    }
+
+    public int advance(char c) {
+        return cache.advance(c);
+    }
+
+    public int lineHeight() {
+        return cache.lineHeight();
+    }
+
+    public Object glyphs() {
+        return cache;
+    }
+}
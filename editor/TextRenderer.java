@@ -0,0 +1,14 @@
+package editor;
+
+import javafx.scene.text.Font;
+
+// Shows the lines of a Layout that are inside the window. A renderer listens to the document
+// after the layout does, so it hears about an edit once the lines have been wrapped again.
+// The -Deditor.renderer property picks one: "nodes" (TextView, the default) or "canvas".
+public interface TextRenderer extends DocumentListener {
+    // forgets everything shown, after all of the layout changed
+    void invalidate();
+
+    // makes sure the lines between top and top + height are shown
+    void render(Layout layout, TextStore text, Font font, int top, int height);
+}
@@ -0,0 +1,23 @@
+package editor;
+
+// The operations a text engine must support to back the editor. Like TextBuffer, edits
+// happen at the cursor: add inserts before it and remove deletes the character behind it.
+public interface TextStore extends ReadableText {
+    int getCursor();
+
+    void setCursor(int offset);
+
+    void add(char c);
+
+    // adds chars[start, start + length) before the cursor in one step
+    void add(char[] chars, int start, int length);
+
+    void remove();
+
+    // removes the count characters behind the cursor in one step
+    void remove(int count);
+
+    // The text as it is now, which stays the same however the store is edited afterwards.
+    // It should be cheap, so that a save or a layout can read the text on another thread.
+    ReadableText snapshot();
+}
@@ -0,0 +1,27 @@
+package editor;
+
+// Creates the text engine the editor runs on. The engine is chosen by name (piece, rope, gap
+// or linked), by default from the editor.buffer system property, e.g.
+// java -Deditor.buffer=gap editor.Editor file.txt, so they can be compared on one workload.
+public class TextStores {
+    public static final String DEFAULT = "piece";
+
+    public static TextStore create() {
+        return create(System.getProperty("editor.buffer", DEFAULT));
+    }
+
+    public static TextStore create(String engine) {
+        switch (engine) {
+            case "piece":
+                return new PieceTable();
+            case "rope":
+                return new Rope();
+            case "gap":
+                return new GapBuffer();
+            case "linked":
+                return new TextBuffer();
+            default:
+                throw new IllegalArgumentException("Unknown buffer engine: " + engine);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package editor;
+
+import javafx.geometry.VPos;
+import javafx.scene.Group;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.ArrayList;
+
+// Shows a Layout on screen through a pool of line nodes, one per line inside the window plus
+// a few above and below it. Scrolling rebinds only the nodes whose lines left the window, and
+// an edit only those whose lines it changed, so the size of the scene graph depends on the
+// window and not on the length of the file.
+public class TextView implements TextRenderer {
+    // lines kept ready beyond each edge of the window, so small scrolls find them bound
+    private static final int OVERSCAN = 5;
+
+    private Group lines;
+    private ArrayList<LineNode> pool;
+    private Font font;
+    private char[] chars = new char[256];
+    // the layout's shifts and line count when the nodes were bound
+    private int shifts;
+    private int lineCount;
+    // the text edited since the nodes were bound is [editStart, editEnd), or editStart is -1
+    private int editStart = -1;
+    private int editEnd;
+
+    // the glyphs of one line, which are reused when the node is bound to another line
+    private static class LineNode {
+        Group group = new Group();
+        ArrayList<Text> glyphs = new ArrayList<>();
+        // the line shown, or -1 if the node is free
+        int line = -1;
+    }
+
+    public TextView(Group textRoot) {
+        lines = new Group();
+        pool = new ArrayList<>();
+        textRoot.getChildren().add(lines);
+    }
+
+    public void invalidate() {
+        for (LineNode node : pool) {
+            node.line = -1;
+        }
+    }
+
+    // keeps the text the edits since the last render touched, to rebind the lines it is on
+    public void changed(int offset, int removed, int inserted) {
+        if (editStart == -1) {
+            editStart = offset;
+            editEnd = offset + inserted;
+        } else {
+            int after = editEnd >= offset + removed ? editEnd + inserted - removed
+                    : Math.min(editEnd, offset);
+            editStart = Math.min(editStart, offset);
+            editEnd = Math.max(after, offset + inserted);
+        }
+    }
+
+    public void render(Layout layout, TextStore text, Font font, int top, int height) {
+        if (font != this.font) {
+            this.font = font;
+            invalidate();
+        }
+        int lineHeight = layout.lineHeight();
+        int first = Math.max(0, top / lineHeight - OVERSCAN);
+        int last = (top + height) / lineHeight + OVERSCAN;
+        // wrapping the stale paragraphs shown can move the lines bound to nodes
+        layout.prepare(first, last);
+        if (layout.getShifts() != shifts) {
+            shifts = layout.getShifts();
+            invalidate();
+        }
+        // the nodes the window holds, kept even while the text is shorter than it
+        int window = last - first + 1;
+        last = Math.min(layout.lineCount() - 1, last);
+        // top can be past the end for a moment after the text got shorter
+        first = Math.min(first, last);
+        int needed = last - first + 1;
+        if (editStart != -1) {
+            unbindEdited(layout, text, last);
+            editStart = -1;
+        }
+        lineCount = layout.lineCount();
+
+        while (pool.size() < needed) {
+            LineNode node = new LineNode();
+            pool.add(node);
+            lines.getChildren().add(node.group);
+        }
+
+        LineNode[] bound = new LineNode[needed];
+        for (LineNode node : pool) {
+            if (node.line < first || node.line > last) {
+                node.line = -1;
+            } else {
+                bound[node.line - first] = node;
+            }
+        }
+
+        int free = 0;
+        for (int line = first; line <= last; line += 1) {
+            if (bound[line - first] == null) {
+                while (pool.get(free).line != -1) {
+                    free += 1;
+                }
+                bind(pool.get(free), line, layout, text);
+            }
+        }
+        // the window got smaller, so the free nodes beyond what it holds are let go
+        for (int i = pool.size() - 1; i >= 0 && pool.size() > window; i -= 1) {
+            if (pool.get(i).line == -1) {
+                lines.getChildren().remove(pool.get(i).group);
+                pool.remove(i);
+            }
+        }
+        for (LineNode node : pool) {
+            if (node.line == -1) {
+                node.group.setVisible(false);
+            }
+        }
+    }
+
+    // Frees the nodes of the lines the edits changed: from the line before the first edit,
+    // which can take back a word, to the end of the paragraph of the last one, or to last if
+    // the number of lines changed, since that moves every line after the edits.
+    private void unbindEdited(Layout layout, TextStore text, int last) {
+        int size = text.size();
+        int from = Math.max(0, layout.lineOf(Math.min(editStart, size)) - 1);
+        if (from > last) {
+            return;
+        }
+        int to = last;
+        if (layout.lineCount() == lineCount) {
+            int paragraph = text.lineOf(Math.min(editEnd, size));
+            int end = paragraph + 1 < text.lineCount() ? text.lineStart(paragraph + 1) - 1
+                    : size;
+            // past the window the paragraph is left as wrapped as it is
+            if (end < layout.lineEnd(last)) {
+                to = layout.lineOf(end);
+            }
+        }
+        for (LineNode node : pool) {
+            if (node.line >= from && node.line <= to) {
+                node.line = -1;
+            }
+        }
+    }
+
+    private void bind(LineNode node, int line, Layout layout, TextStore text) {
+        GlyphMetrics metrics = layout.getMetrics();
+        int start = layout.lineStart(line);
+        int end = Math.min(layout.lineEnd(line), text.size());
+        if (end - start > chars.length) {
+            chars = new char[Math.max(end - start, chars.length * 2)];
+        }
+        text.getChars(start, end, chars, 0);
+
+        int shown = 0;
+        int x = layout.getLeftMargin();
+        for (int i = 0; i < end - start; i += 1) {
+            char c = chars[i];
+            if (c == '\n') {
+                continue;
+            }
+            if (shown == node.glyphs.size()) {
+                Text glyph = new Text();
+                glyph.setTextOrigin(VPos.TOP);
+                node.glyphs.add(glyph);
+            }
+            Text glyph = node.glyphs.get(shown);
+            glyph.setText(Character.toString(c));
+            glyph.setFont(font);
+            glyph.setX(x);
+            x += metrics.advance(c);
+            shown += 1;
+        }
+
+        node.group.getChildren().setAll(node.glyphs.subList(0, shown));
+        node.group.setLayoutY(layout.y(line));
+        node.group.setVisible(true);
+        node.line = line;
+    }
+}